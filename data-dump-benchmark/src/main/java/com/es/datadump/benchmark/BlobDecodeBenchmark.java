@@ -0,0 +1,73 @@
+package com.es.datadump.benchmark;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.es.datadump.converter.column.BlobColumnConverter;
+import com.es.datadump.converter.column.ColumnConverter;
+import com.es.datadump.converter.column.ColumnConverters;
+import com.es.datadump.util.CharSetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * blob列解码的基准：原CharSetUtil三次转换与BlobColumnConverter直接解码对比
+ *
+ * @author yiheni
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class BlobDecodeBenchmark {
+
+    @Param({"256", "4096", "65536"})
+    public int bytes;
+
+    private Column column;
+    private ColumnConverter rawConverter;
+
+    @Setup
+    public void setup() {
+        column = Column.newBuilder()
+                .setIndex(0)
+                .setName("content")
+                .setMysqlType("blob")
+                .setSqlType(Types.BLOB)
+                .setValue(RowChangeFixtures.blobValue(RowChangeFixtures.utf8Text(bytes)))
+                .build();
+        rawConverter = new BlobColumnConverter(StandardCharsets.UTF_8, 1);
+    }
+
+    @Benchmark
+    public String charSetUtil() throws Exception {
+        return CharSetUtil.bytesToString(column.getValueBytes().toByteArray(), StandardCharsets.ISO_8859_1.name(),
+                StandardCharsets.UTF_8.name());
+    }
+
+    @Benchmark
+    public Object blobConverter() throws Exception {
+        return ColumnConverters.BLOB.convert(column);
+    }
+
+    /**
+     * 超过阈值按字节数组写入，不解码
+     */
+    @Benchmark
+    public Object rawPassThrough() throws Exception {
+        return rawConverter.convert(column);
+    }
+}
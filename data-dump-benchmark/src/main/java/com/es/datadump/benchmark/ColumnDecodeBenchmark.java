@@ -0,0 +1,104 @@
+package com.es.datadump.benchmark;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.alibaba.otter.canal.protocol.CanalEntry.RowChange;
+import com.alibaba.otter.canal.protocol.CanalEntry.RowData;
+import com.es.datadump.benchmark.RowChangeFixtures.Shape;
+import com.es.datadump.converter.column.ColumnConversionPlan;
+import com.es.datadump.converter.column.ColumnConversionPlanCache;
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 行数据解析与列转换的基准，对应SyncDataThread中逐行解码的热路径
+ * 吞吐按行计：每次调用处理ROWS行。
+ *
+ * @author yiheni
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class ColumnDecodeBenchmark {
+
+    private final static int ROWS = 100;
+
+    @Param({"NARROW", "WIDE", "DATE", "BLOB", "COMPOSITE_KEY"})
+    public Shape shape;
+
+    @Param({"4096"})
+    public int blobBytes;
+
+    private String table;
+    private ByteString storeValue;
+    private List<List<Column>> rows;
+    private ColumnConversionPlan plan;
+    private ColumnConversionPlanCache planCache;
+
+    @Setup
+    public void setup() {
+        table = RowChangeFixtures.tableOf(shape);
+        RowChange rowChange = RowChangeFixtures.rowChange(shape, ROWS, blobBytes);
+        storeValue = RowChangeFixtures.entry(shape, rowChange).getStoreValue();
+        rows = new ArrayList<>(ROWS);
+        for (RowData rowData : rowChange.getRowDatasList()) {
+            rows.add(rowData.getAfterColumnsList());
+        }
+        plan = ColumnConversionPlan.compile(rows.get(0));
+        planCache = new ColumnConversionPlanCache();
+    }
+
+    /**
+     * 已解析的列按转换计划解码
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void decode(Blackhole blackhole) {
+        for (List<Column> columns : rows) {
+            blackhole.consume(plan.decode(columns));
+        }
+    }
+
+    /**
+     * 从entry的storeValue解析RowChange，取缓存的转换计划并逐行解码
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void parseAndDecode(Blackhole blackhole) throws Exception {
+        RowChange rowChange = RowChange.parseFrom(storeValue);
+        ColumnConversionPlan cached = null;
+        for (RowData rowData : rowChange.getRowDatasList()) {
+            List<Column> columns = rowData.getAfterColumnsList();
+            if (cached == null) {
+                cached = planCache.planFor(table, columns);
+            }
+            blackhole.consume(cached.decode(columns));
+        }
+    }
+
+    /**
+     * 编译转换计划，表结构变更后的首行会走到这里
+     */
+    @Benchmark
+    public ColumnConversionPlan compile() {
+        return ColumnConversionPlan.compile(rows.get(0));
+    }
+}
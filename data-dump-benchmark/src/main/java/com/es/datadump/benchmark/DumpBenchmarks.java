@@ -0,0 +1,27 @@
+package com.es.datadump.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口，默认运行全部基准并开启GC profiler，报告吞吐与每次操作的分配字节数（gc.alloc.rate.norm）
+ * 命令行参数与JMH一致，如：java -jar benchmarks.jar ColumnDecode -p shape=WIDE -rf json
+ *
+ * @author yiheni
+ */
+public class DumpBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(DumpBenchmarks.class.getPackage().getName() + ".*");
+        }
+        Options options = builder.addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
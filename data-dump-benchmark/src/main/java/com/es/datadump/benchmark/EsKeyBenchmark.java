@@ -0,0 +1,69 @@
+package com.es.datadump.benchmark;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.es.datadump.benchmark.RowChangeFixtures.Shape;
+import com.es.datadump.converter.column.ColumnConversionPlan;
+import com.es.stone.manager.ElasticSearchDumpManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * es_key拼接的基准：ElasticSearchDumpManager.esKeyString（按列名排序的map）与转换计划预排序的buildKey
+ *
+ * @author yiheni
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class EsKeyBenchmark {
+
+    @Param({"NARROW", "COMPOSITE_KEY"})
+    public Shape shape;
+
+    private ElasticSearchDumpManager elasticSearchDumpManager;
+    private List<Column> columns;
+    private ColumnConversionPlan plan;
+
+    @Setup
+    public void setup() {
+        elasticSearchDumpManager = new ElasticSearchDumpManager();
+        columns = RowChangeFixtures.rowChange(shape, 1, 0).getRowDatas(0).getAfterColumnsList();
+        plan = ColumnConversionPlan.compile(columns);
+    }
+
+    /**
+     * 原方式：逐列收集主键到TreeMap后拼接
+     */
+    @Benchmark
+    public String esKeyString() {
+        Map<String, String> keyMap = new TreeMap<>();
+        for (Column column : columns) {
+            if (column.getIsKey()) {
+                keyMap.put(column.getName(), column.getValue());
+            }
+        }
+        return elasticSearchDumpManager.esKeyString(keyMap);
+    }
+
+    @Benchmark
+    public String planBuildKey() {
+        return plan.buildKey(columns);
+    }
+}
@@ -0,0 +1,214 @@
+package com.es.datadump.benchmark;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.alibaba.otter.canal.protocol.CanalEntry.Entry;
+import com.alibaba.otter.canal.protocol.CanalEntry.EntryType;
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+import com.alibaba.otter.canal.protocol.CanalEntry.Header;
+import com.alibaba.otter.canal.protocol.CanalEntry.RowChange;
+import com.alibaba.otter.canal.protocol.CanalEntry.RowData;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试用的合成binlog数据
+ * 按canal的编码方式构造列值：blob原始字节按ISO-8859-1转为字符串，日期为mysql文本格式。
+ * 固定随机种子，多次运行的输入一致。
+ *
+ * @author yiheni
+ */
+public class RowChangeFixtures {
+
+    public final static String SCHEMA = "db_search";
+
+    private final static String TEXT = "同步elasticsearch的增量数据，canal解析mysql的binlog日志。";
+
+    private RowChangeFixtures() {
+    }
+
+    /**
+     * 表结构形态
+     */
+    public enum Shape {
+        /**
+         * 窄表：主键加少量数字、短文本列
+         */
+        NARROW,
+        /**
+         * 宽表：60列，文本、数字混合
+         */
+        WIDE,
+        /**
+         * 日期多的表：datetime、timestamp、date、time列为主
+         */
+        DATE,
+        /**
+         * 带blob列的表，blob为UTF-8文本
+         */
+        BLOB,
+        /**
+         * 联合主键，带经纬度列
+         */
+        COMPOSITE_KEY
+    }
+
+    /**
+     * 表名
+     *
+     * @param shape
+     * @return schema.table
+     */
+    public static String tableOf(Shape shape) {
+        return SCHEMA + ".tb_bench_" + shape.name().toLowerCase();
+    }
+
+    /**
+     * 构造一个RowChange，包含rows行UPDATE数据
+     *
+     * @param shape
+     * @param rows
+     * @param blobBytes blob列的原始字节数，仅BLOB形态使用
+     * @return
+     */
+    public static RowChange rowChange(Shape shape, int rows, int blobBytes) {
+        Random random = new Random(42);
+        RowChange.Builder builder = RowChange.newBuilder().setEventType(EventType.UPDATE);
+        for (int i = 0; i < rows; i++) {
+            builder.addRowDatas(RowData.newBuilder().addAllAfterColumns(columns(shape, i, blobBytes, random)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 构造ROWDATA类型的entry
+     *
+     * @param shape
+     * @param rowChange
+     * @return
+     */
+    public static Entry entry(Shape shape, RowChange rowChange) {
+        Header header = Header.newBuilder()
+                .setSchemaName(SCHEMA)
+                .setTableName("tb_bench_" + shape.name().toLowerCase())
+                .setLogfileName("mysql-bin.000001")
+                .setLogfileOffset(4)
+                .setExecuteTime(System.currentTimeMillis())
+                .setEventType(EventType.UPDATE)
+                .build();
+        return Entry.newBuilder()
+                .setEntryType(EntryType.ROWDATA)
+                .setHeader(header)
+                .setStoreValue(rowChange.toByteString())
+                .build();
+    }
+
+    /**
+     * canal对blob列的编码：原始字节按ISO-8859-1转为字符串
+     *
+     * @param bytes
+     * @return
+     */
+    public static String blobValue(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 指定长度的UTF-8文本字节
+     *
+     * @param length
+     * @return
+     */
+    public static byte[] utf8Text(int length) {
+        byte[] text = TEXT.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = text[i % text.length];
+        }
+        //截断时避免末尾出现不完整的UTF-8字符
+        int end = length;
+        while (end > 0 && (bytes[end - 1] & 0xC0) == 0x80) {
+            end--;
+        }
+        if (end > 0 && (bytes[end - 1] & 0x80) != 0) {
+            end--;
+        }
+        for (int i = end; i < length; i++) {
+            bytes[i] = ' ';
+        }
+        return bytes;
+    }
+
+    private static List<Column> columns(Shape shape, int row, int blobBytes, Random random) {
+        List<Column> columns = new ArrayList<>();
+        switch (shape) {
+            case NARROW:
+                columns.add(key(columns.size(), "id", String.valueOf(100000 + row)));
+                columns.add(column(columns.size(), "status", "tinyint(4)", Types.TINYINT, String.valueOf(random.nextInt(4))));
+                columns.add(column(columns.size(), "amount", "bigint(20)", Types.BIGINT, String.valueOf(random.nextInt(1000000))));
+                columns.add(column(columns.size(), "title", "varchar(64)", Types.VARCHAR, TEXT.substring(0, 16)));
+                columns.add(column(columns.size(), "create_time", "datetime", Types.TIMESTAMP, "2018-09-12 10:20:30"));
+                break;
+            case WIDE:
+                columns.add(key(columns.size(), "id", String.valueOf(100000 + row)));
+                for (int i = 0; i < 59; i++) {
+                    if (i % 3 == 0) {
+                        columns.add(column(columns.size(), "text_" + i, "varchar(255)", Types.VARCHAR, TEXT));
+                    } else {
+                        columns.add(column(columns.size(), "num_" + i, "int(11)", Types.INTEGER, String.valueOf(random.nextInt())));
+                    }
+                }
+                break;
+            case DATE:
+                columns.add(key(columns.size(), "id", String.valueOf(100000 + row)));
+                for (int i = 0; i < 4; i++) {
+                    columns.add(column(columns.size(), "datetime_" + i, "datetime", Types.TIMESTAMP,
+                            String.format("2018-%02d-%02d %02d:%02d:%02d", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                                    random.nextInt(24), random.nextInt(60), random.nextInt(60))));
+                    columns.add(column(columns.size(), "timestamp_" + i, "timestamp", Types.TIMESTAMP,
+                            "2018-09-12 10:20:30.123"));
+                    columns.add(column(columns.size(), "date_" + i, "date", Types.DATE,
+                            String.format("2018-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28))));
+                    columns.add(column(columns.size(), "time_" + i, "time", Types.TIME,
+                            String.format("%02d:%02d:%02d", random.nextInt(24), random.nextInt(60), random.nextInt(60))));
+                }
+                break;
+            case BLOB:
+                columns.add(key(columns.size(), "id", String.valueOf(100000 + row)));
+                columns.add(column(columns.size(), "title", "varchar(64)", Types.VARCHAR, TEXT.substring(0, 16)));
+                columns.add(column(columns.size(), "content", "blob", Types.BLOB, blobValue(utf8Text(blobBytes))));
+                break;
+            case COMPOSITE_KEY:
+                columns.add(key(columns.size(), "shop_id", String.valueOf(random.nextInt(10000))));
+                columns.add(key(columns.size(), "id", String.valueOf(100000 + row)));
+                columns.add(column(columns.size(), "name", "varchar(64)", Types.VARCHAR, TEXT.substring(0, 8)));
+                columns.add(column(columns.size(), "lat", "varchar(16)", Types.VARCHAR,
+                        String.valueOf(30 + random.nextDouble())));
+                columns.add(column(columns.size(), "lng", "varchar(16)", Types.VARCHAR,
+                        String.valueOf(120 + random.nextDouble())));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+        return columns;
+    }
+
+    private static Column key(int index, String name, String value) {
+        return Column.newBuilder(column(index, name, "bigint(20)", Types.BIGINT, value)).setIsKey(true).build();
+    }
+
+    private static Column column(int index, String name, String mysqlType, int sqlType, String value) {
+        return Column.newBuilder()
+                .setIndex(index)
+                .setName(name)
+                .setMysqlType(mysqlType)
+                .setSqlType(sqlType)
+                .setValue(value)
+                .setUpdated(index % 2 == 1)
+                .setIsNull(false)
+                .build();
+    }
+}
@@ -0,0 +1,91 @@
+package com.es.datadump.benchmark;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.es.datadump.benchmark.RowChangeFixtures.Shape;
+import com.es.datadump.converter.LatAndlonConverter;
+import com.es.datadump.converter.column.ColumnConversionPlan;
+import com.es.datadump.manager.ServiceImportManager;
+import com.es.stone.manager.ElasticSearchDumpManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 行数据按索引路由与业务转换的基准：ServiceImportManager.getDateMap、buildWriteRequest，LatAndlonConverter
+ * 写入ES的调用替换为空实现，只测转换与请求组装；每次调用复制一份行数据，与实际逐行新建map一致。
+ *
+ * @author yiheni
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class RowRoutingBenchmark {
+
+    /**
+     * 特殊业务索引与普通索引
+     */
+    @Param({"db_search.tb_ts", "db_search.tb_bench_wide"})
+    public String index;
+
+    private ServiceImportManager serviceImportManager;
+    private Map colMap;
+    private Map locationMap;
+
+    @Setup
+    public void setup() throws Exception {
+        serviceImportManager = new ServiceImportManager();
+        Field field = ServiceImportManager.class.getDeclaredField("elasticSearchDumpManager");
+        field.setAccessible(true);
+        field.set(serviceImportManager, new NoopElasticSearchDumpManager());
+        colMap = decode(Shape.WIDE);
+        locationMap = decode(Shape.COMPOSITE_KEY);
+    }
+
+    @Benchmark
+    public Map getDateMap() {
+        return serviceImportManager.getDateMap(new HashMap(colMap), index);
+    }
+
+    @Benchmark
+    public Object buildWriteRequest() {
+        return serviceImportManager.buildWriteRequest(new HashMap(colMap), index);
+    }
+
+    @Benchmark
+    public Map latAndlonConvert() {
+        Map map = new HashMap(locationMap);
+        LatAndlonConverter.latAndlonConvert(map);
+        return map;
+    }
+
+    private static Map decode(Shape shape) {
+        List<Column> columns = RowChangeFixtures.rowChange(shape, 1, 0).getRowDatas(0).getAfterColumnsList();
+        return ColumnConversionPlan.compile(columns).decode(columns);
+    }
+
+    /**
+     * 不连接ES的ElasticSearchDumpManager
+     */
+    private static class NoopElasticSearchDumpManager extends ElasticSearchDumpManager {
+        @Override
+        public void insertOrUpdateToEs(Map colMap, String index) {
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.es.datadump.benchmark.e2e;
+
+import com.es.datadump.manager.canal.CanalCoreManager;
+import com.es.datadump.manager.canal.CanalCoreManagerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * data-dump端到端吞吐压测，不依赖mysql、canal与ES，可离线运行
+ * 合成binlog经SyntheticCanalConnector进入与线上相同的拉取、解析、分派、批量写入链路，写入进程内的EsHttpStub；
+ * 预热行数ack后开始计量，结束时输出行/秒、端到端延迟分位数（行产生到ES收到）、堆内存与GC。
+ * <p>
+ * 压测参数以 --bench. 开头，其余参数原样传给spring，可覆盖data-dump的任意配置，如：
+ * <pre>
+ * java -cp data-dump-benchmark/target/benchmarks.jar com.es.datadump.benchmark.e2e.EndToEndBenchmark \
+ *     --bench.rows=1000000 --bench.columns=40 --bench.es-latency-ms=10 --dump.apply.mode=TRANSACTION
+ * </pre>
+ *
+ * @author yiheni
+ */
+public class EndToEndBenchmark {
+
+    private final static String PREFIX = "--bench.";
+    private final static String DESTINATION = "bench";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> springArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(PREFIX) && arg.indexOf('=') > 0) {
+                options.put(arg.substring(PREFIX.length(), arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                springArgs.add(arg);
+            }
+        }
+        long rows = Long.parseLong(option(options, "rows", "500000"));
+        long warmupRows = Long.parseLong(option(options, "warmup-rows", "100000"));
+        long timeoutSeconds = Long.parseLong(option(options, "timeout-seconds", "600"));
+        String[] mix = option(options, "mix", "60:35:5").split(":");
+
+        LatencyRecorder latencies = new LatencyRecorder(Integer.parseInt(option(options, "latency-samples", "2000000")));
+        EsHttpStub stub = new EsHttpStub(
+                Long.parseLong(option(options, "es-latency-ms", "5")),
+                Long.parseLong(option(options, "es-jitter-ms", "5")),
+                Double.parseDouble(option(options, "es-item-reject-rate", "0")),
+                Double.parseDouble(option(options, "es-bulk-reject-rate", "0")),
+                Integer.parseInt(option(options, "es-threads", "32")),
+                SyntheticCanalConnector.TIMESTAMP_FIELD, latencies);
+        stub.start();
+
+        SyntheticCanalConnector connector = new SyntheticCanalConnector(warmupRows + rows,
+                Integer.parseInt(option(options, "columns", "20")),
+                Integer.parseInt(option(options, "rows-per-event", "1")),
+                Integer.parseInt(option(options, "events-per-transaction", "10")),
+                Integer.parseInt(mix[0]), Integer.parseInt(mix[1]),
+                Integer.parseInt(option(options, "key-space", "100000")));
+
+        // 压测默认值，命令行同名参数优先
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("es.client.servers", "127.0.0.1:" + stub.getPort());
+        defaults.put("canal.client.servers", "127.0.0.1:11111");
+        defaults.put("canal.client.destinations", DESTINATION);
+        defaults.put("dump.ddl.put-mapping", "false");
+        defaults.put("dump.dead-letter.dir", Files.createTempDirectory("dump-bench-dead-letter").toString());
+        defaults.put("logging.level.root", "WARN");
+        for (Map.Entry<String, String> entry : defaults.entrySet()) {
+            if (springArgs.stream().noneMatch(arg -> arg.startsWith("--" + entry.getKey() + "="))) {
+                springArgs.add("--" + entry.getKey() + "=" + entry.getValue());
+            }
+        }
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(EndToEndConfig.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .run(springArgs.toArray(new String[0]));
+        MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+        context.getBeansOfType(MeterBinder.class).values().forEach(binder -> binder.bindTo(meterRegistry));
+
+        CanalCoreManager canalManager = context.getBean(CanalCoreManagerFactory.class).create(DESTINATION, connector);
+        canalManager.start();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        boolean measuring = warmupRows == 0;
+        long startNanos = System.nanoTime();
+        long startRows = 0;
+        long[] startGc = gc();
+        long heapMax = 0;
+        long heapSum = 0;
+        long heapSamples = 0;
+        if (measuring) {
+            System.out.println("开始计量");
+        }
+        while (!connector.isDrained() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            if (!measuring && connector.getAckedRows() >= warmupRows) {
+                measuring = true;
+                stub.reset();
+                latencies.reset();
+                startNanos = System.nanoTime();
+                startRows = connector.getAckedRows();
+                startGc = gc();
+                System.out.println("预热完成，开始计量");
+            }
+            if (measuring) {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                heapMax = Math.max(heapMax, used);
+                heapSum += used;
+                heapSamples++;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long measuredRows = connector.getAckedRows() - startRows;
+        long[] endGc = gc();
+        boolean drained = connector.isDrained();
+
+        canalManager.stop();
+        context.close();
+        stub.stop();
+
+        long[] sorted = latencies.sortedMicros();
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("========== data-dump端到端压测 ==========");
+        System.out.println("参数: " + options + " spring: " + springArgs);
+        System.out.println(drained ? "全部行已写入并ack" : "超时，未写完全部行");
+        System.out.printf("计量行数: %d, 耗时: %.1fs, 吞吐: %.0f 行/秒%n", measuredRows, seconds, measuredRows / seconds);
+        System.out.printf("ES: bulk请求 %d, 单条请求 %d, 文档 %d, 拒绝 %d条 / %d批, 接收 %.1f MB, rollback %d次%n",
+                stub.getBulkRequests(), stub.getSingleRequests(), stub.getItems(), stub.getRejectedItems(),
+                stub.getRejectedBulks(), stub.getReceivedBytes() / 1024.0 / 1024.0, connector.getRollbacks());
+        System.out.printf("端到端延迟(ms): p50 %.1f, p90 %.1f, p99 %.1f, p999 %.1f, max %.1f, 样本 %d%n",
+                LatencyRecorder.percentile(sorted, 50) / 1000.0, LatencyRecorder.percentile(sorted, 90) / 1000.0,
+                LatencyRecorder.percentile(sorted, 99) / 1000.0, LatencyRecorder.percentile(sorted, 99.9) / 1000.0,
+                LatencyRecorder.percentile(sorted, 100) / 1000.0, latencies.getCount());
+        System.out.printf("堆内存(MB): 峰值 %.1f, 平均 %.1f; GC: %d次, 耗时 %dms%n",
+                heapMax / 1024.0 / 1024.0, heapSamples == 0 ? 0 : heapSum / heapSamples / 1024.0 / 1024.0,
+                endGc[0] - startGc[0], endGc[1] - startGc[1]);
+        System.exit(drained ? 0 : 1);
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * 累计GC次数与耗时
+     *
+     * @return [次数, 毫秒]
+     */
+    private static long[] gc() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+}
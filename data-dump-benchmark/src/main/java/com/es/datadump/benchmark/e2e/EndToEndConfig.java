@@ -0,0 +1,22 @@
+package com.es.datadump.benchmark.e2e;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportResource;
+
+/**
+ * 端到端压测的spring配置，只加载data-dump的manager，不扫描CanalClientRunner等启动组件
+ *
+ * @author yiheni
+ */
+@Configuration
+@ImportResource("classpath:META-INF/spring/application-manager.xml")
+public class EndToEndConfig {
+
+    @Bean
+    public MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+}
@@ -0,0 +1,285 @@
+package com.es.datadump.benchmark.e2e;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的ES替身，基于JDK自带的HttpServer
+ * 支持单条写入（index / update / delete）与bulk接口，按配置模拟响应耗时、整批429与逐条429拒绝；
+ * 文档中带时间戳字段时，按收到并完成模拟耗时的时刻记录端到端延迟。
+ * 不保存文档，update总是成功，只用于压测写入链路。
+ *
+ * @author yiheni
+ */
+public class EsHttpStub {
+
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double itemRejectRate;
+    private final double bulkRejectRate;
+    private final int threads;
+    private final String timestampField;
+    private final LatencyRecorder latencies;
+
+    private final AtomicLong bulkRequests = new AtomicLong();
+    private final AtomicLong singleRequests = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong rejectedItems = new AtomicLong();
+    private final AtomicLong rejectedBulks = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param latencyMs      每个请求的模拟耗时
+     * @param jitterMs       耗时的随机抖动上限
+     * @param itemRejectRate bulk中单条返回429的比例
+     * @param bulkRejectRate bulk整批返回429的比例
+     * @param threads        处理请求的线程数
+     * @param timestampField 文档中记录产生时刻（System.nanoTime）的字段
+     * @param latencies      端到端延迟记录
+     */
+    public EsHttpStub(long latencyMs, long jitterMs, double itemRejectRate, double bulkRejectRate, int threads,
+                      String timestampField, LatencyRecorder latencies) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.itemRejectRate = itemRejectRate;
+        this.bulkRejectRate = bulkRejectRate;
+        this.threads = threads;
+        this.timestampField = "\"" + timestampField + "\":\"";
+        this.latencies = latencies;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 预热结束后清零统计
+     */
+    public void reset() {
+        bulkRequests.set(0);
+        singleRequests.set(0);
+        items.set(0);
+        rejectedItems.set(0);
+        rejectedBulks.set(0);
+        receivedBytes.set(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readFully(exchange.getRequestBody());
+            receivedBytes.addAndGet(body.length);
+            simulateLatency();
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String[] segments = path.substring(1).split("/");
+            if (path.endsWith("/_bulk")) {
+                bulk(exchange, new String(body, StandardCharsets.UTF_8));
+            } else if ("HEAD".equals(method)) {
+                respond(exchange, 200, null);
+            } else if (segments.length == 4 && "_update".equals(segments[3])) {
+                single(exchange, "updated", 200, segments, new String(body, StandardCharsets.UTF_8));
+            } else if (segments.length == 3 && "DELETE".equals(method)) {
+                single(exchange, "deleted", 200, segments, null);
+            } else if (segments.length == 3 && !segments[2].startsWith("_")) {
+                single(exchange, "created", 201, segments, new String(body, StandardCharsets.UTF_8));
+            } else {
+                respond(exchange, 200, "{\"acknowledged\":true}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void single(HttpExchange exchange, String result, int status, String[] segments, String source)
+            throws IOException {
+        singleRequests.incrementAndGet();
+        items.incrementAndGet();
+        recordLatency(source);
+        StringBuilder json = new StringBuilder(256);
+        appendResult(json, segments[0], segments[1], segments[2], result);
+        respond(exchange, status, json.toString());
+    }
+
+    private void bulk(HttpExchange exchange, String body) throws IOException {
+        bulkRequests.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (bulkRejectRate > 0 && random.nextDouble() < bulkRejectRate) {
+            rejectedBulks.incrementAndGet();
+            respond(exchange, 429, "{\"error\":{\"root_cause\":[],\"type\":\"es_rejected_execution_exception\","
+                    + "\"reason\":\"rejected by stub\"},\"status\":429}");
+            return;
+        }
+        long start = System.nanoTime();
+        boolean errors = false;
+        StringBuilder json = new StringBuilder(body.length() / 4 + 64);
+        json.append("{\"took\":0,\"errors\":ERRORS,\"items\":[");
+        String[] lines = body.split("\n");
+        int count = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String action = lines[i];
+            if (action.isEmpty()) {
+                continue;
+            }
+            String op = action.substring(action.indexOf('"') + 1, action.indexOf('"', action.indexOf('"') + 1));
+            String source = null;
+            if (!"delete".equals(op) && i + 1 < lines.length) {
+                source = lines[++i];
+            }
+            if (count++ > 0) {
+                json.append(',');
+            }
+            String index = field(action, "_index");
+            String type = field(action, "_type");
+            String id = field(action, "_id");
+            json.append("{\"").append(op).append("\":");
+            if (itemRejectRate > 0 && random.nextDouble() < itemRejectRate) {
+                errors = true;
+                rejectedItems.incrementAndGet();
+                json.append("{\"_index\":\"").append(index).append("\",\"_type\":\"").append(type)
+                        .append("\",\"_id\":\"").append(id).append("\",\"status\":429,\"error\":{\"type\":")
+                        .append("\"es_rejected_execution_exception\",\"reason\":\"rejected by stub\"}}}");
+                continue;
+            }
+            recordLatency(source);
+            String result = "delete".equals(op) ? "deleted" : "update".equals(op) ? "updated" : "created";
+            appendResult(json, index, type, id, result);
+            json.append('}');
+        }
+        items.addAndGet(count);
+        json.append("]}");
+        int errorsAt = json.indexOf("ERRORS");
+        json.replace(errorsAt, errorsAt + "ERRORS".length(), String.valueOf(errors));
+        json.replace(json.indexOf("\"took\":0"), json.indexOf("\"took\":0") + "\"took\":0".length(),
+                "\"took\":" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        respond(exchange, 200, json.toString());
+    }
+
+    private void appendResult(StringBuilder json, String index, String type, String id, String result) {
+        int status = "created".equals(result) ? 201 : 200;
+        json.append("{\"_index\":\"").append(index).append("\",\"_type\":\"").append(type)
+                .append("\",\"_id\":\"").append(id).append("\",\"_version\":1,\"result\":\"").append(result)
+                .append("\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,")
+                .append("\"_primary_term\":1,\"status\":").append(status).append('}');
+    }
+
+    /**
+     * 取文档中的时间戳字段，计算从产生到写入ES的耗时
+     */
+    private void recordLatency(String source) {
+        if (source == null) {
+            return;
+        }
+        int at = source.indexOf(timestampField);
+        if (at < 0) {
+            return;
+        }
+        int from = at + timestampField.length();
+        int to = source.indexOf('"', from);
+        try {
+            latencies.record(System.nanoTime() - Long.parseLong(source.substring(from, to)));
+        } catch (NumberFormatException e) {
+            //不是合成数据产生的文档，忽略
+        }
+    }
+
+    private static String field(String action, String name) {
+        String key = "\"" + name + "\":\"";
+        int at = action.indexOf(key);
+        if (at < 0) {
+            return "";
+        }
+        int from = at + key.length();
+        return action.substring(from, action.indexOf('"', from));
+    }
+
+    private void simulateLatency() {
+        long sleepMs = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (sleepMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(sleepMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public long getBulkRequests() {
+        return bulkRequests.get();
+    }
+
+    public long getSingleRequests() {
+        return singleRequests.get();
+    }
+
+    public long getItems() {
+        return items.get();
+    }
+
+    public long getRejectedItems() {
+        return rejectedItems.get();
+    }
+
+    public long getRejectedBulks() {
+        return rejectedBulks.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+}
@@ -0,0 +1,81 @@
+package com.es.datadump.benchmark.e2e;
+
+import java.util.Arrays;
+
+/**
+ * 端到端延迟记录，按微秒保存全部样本，结束时排序取分位数
+ * 超过容量后按固定间隔抽样，避免长时间压测占满内存。
+ *
+ * @author yiheni
+ */
+public class LatencyRecorder {
+
+    private final int capacity;
+    private long[] samples = new long[1 << 16];
+    private int size;
+    private long seen;
+
+    /**
+     * @param capacity 保存的样本上限
+     */
+    public LatencyRecorder(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 记录一次延迟
+     *
+     * @param nanos
+     */
+    public synchronized void record(long nanos) {
+        seen++;
+        long micros = nanos / 1000;
+        if (size < capacity) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, Math.min(capacity, samples.length * 2));
+            }
+            samples[size++] = micros;
+        } else {
+            //蓄水池抽样，保证各时段的样本概率一致
+            long slot = (long) (Math.random() * seen);
+            if (slot < capacity) {
+                samples[(int) slot] = micros;
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        size = 0;
+        seen = 0;
+    }
+
+    /**
+     * 当前样本按升序排列的快照
+     *
+     * @return
+     */
+    public synchronized long[] sortedMicros() {
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * 取分位数
+     *
+     * @param sorted  sortedMicros的结果
+     * @param percent 0-100
+     * @return 微秒，无样本时返回0
+     */
+    public static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public synchronized long getCount() {
+        return seen;
+    }
+}
@@ -0,0 +1,313 @@
+package com.es.datadump.benchmark.e2e;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.alibaba.otter.canal.protocol.CanalEntry.Entry;
+import com.alibaba.otter.canal.protocol.CanalEntry.EntryType;
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+import com.alibaba.otter.canal.protocol.CanalEntry.Header;
+import com.alibaba.otter.canal.protocol.CanalEntry.RowChange;
+import com.alibaba.otter.canal.protocol.CanalEntry.RowData;
+import com.alibaba.otter.canal.protocol.CanalEntry.TransactionBegin;
+import com.alibaba.otter.canal.protocol.CanalEntry.TransactionEnd;
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.protocol.exception.CanalClientException;
+
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合成binlog的CanalConnector，不连接canal服务端
+ * 按配置的事件比例、表宽度与事务大小逐批生成Message：每个事务为BEGIN、若干ROWDATA、END，
+ * 主键在固定范围内随机，UPDATE、DELETE会命中已写入的文档，与线上的合并、覆盖情况接近。
+ * 未ack的批次在rollback后按原顺序重新投递；行数据带产生时刻（System.nanoTime），供ES替身计算端到端延迟。
+ *
+ * @author yiheni
+ */
+public class SyntheticCanalConnector implements CanalConnector {
+
+    public final static String SCHEMA = "db_bench";
+    public final static String TABLE = "tb_bench";
+    public final static String TIMESTAMP_FIELD = "bench_ts";
+
+    private final static String LOGFILE = "mysql-bin.000001";
+    private final static String TEXT = "canal解析mysql的binlog日志，增量同步到elasticsearch";
+
+    private final long totalRows;
+    private final int columns;
+    private final int rowsPerEvent;
+    private final int eventsPerTransaction;
+    private final int insertPercent;
+    private final int updatePercent;
+    private final int keySpace;
+    private final Random random = new Random(42);
+
+    private final Deque<Message> redeliveries = new ArrayDeque<>();
+    private final Map<Long, Message> unacked = new LinkedHashMap<>();
+    private final Map<Long, Long> unackedRows = new LinkedHashMap<>();
+    private long nextBatchId = 1;
+    private long generatedRows;
+    private long offset = 4;
+    private int eventsInTransaction = -1;
+    private volatile long ackedRows;
+    private volatile long rollbacks;
+
+    /**
+     * @param totalRows            生成的总行数
+     * @param columns              表的列数，至少2列（主键与时间戳列）
+     * @param rowsPerEvent         每个ROWDATA事件的行数
+     * @param eventsPerTransaction 每个事务的ROWDATA事件数
+     * @param insertPercent        INSERT占比
+     * @param updatePercent        UPDATE占比，其余为DELETE
+     * @param keySpace             主键范围
+     */
+    public SyntheticCanalConnector(long totalRows, int columns, int rowsPerEvent, int eventsPerTransaction,
+                                   int insertPercent, int updatePercent, int keySpace) {
+        this.totalRows = totalRows;
+        this.columns = Math.max(2, columns);
+        this.rowsPerEvent = rowsPerEvent;
+        this.eventsPerTransaction = eventsPerTransaction;
+        this.insertPercent = insertPercent;
+        this.updatePercent = updatePercent;
+        this.keySpace = keySpace;
+    }
+
+    @Override
+    public void connect() throws CanalClientException {
+    }
+
+    @Override
+    public void disconnect() throws CanalClientException {
+    }
+
+    @Override
+    public boolean checkValid() throws CanalClientException {
+        return true;
+    }
+
+    @Override
+    public void subscribe(String filter) throws CanalClientException {
+    }
+
+    @Override
+    public void subscribe() throws CanalClientException {
+    }
+
+    @Override
+    public void unsubscribe() throws CanalClientException {
+    }
+
+    @Override
+    public Message get(int batchSize) throws CanalClientException {
+        Message message = getWithoutAck(batchSize);
+        if (message.getId() != -1) {
+            ack(message.getId());
+        }
+        return message;
+    }
+
+    @Override
+    public Message get(int batchSize, Long timeout, TimeUnit unit) throws CanalClientException {
+        return get(batchSize);
+    }
+
+    @Override
+    public synchronized Message getWithoutAck(int batchSize) throws CanalClientException {
+        Message redelivery = redeliveries.poll();
+        if (redelivery != null) {
+            return track(redelivery.getEntries(), countRows(redelivery.getEntries()));
+        }
+        if (generatedRows >= totalRows && eventsInTransaction < 0) {
+            idle();
+            return new Message(-1, Collections.<Entry>emptyList());
+        }
+        List<Entry> entries = new ArrayList<>(batchSize);
+        long rows = 0;
+        while (entries.size() < batchSize) {
+            if (eventsInTransaction < 0) {
+                if (generatedRows >= totalRows) {
+                    break;
+                }
+                entries.add(transactionEntry(EntryType.TRANSACTIONBEGIN));
+                eventsInTransaction = 0;
+            } else if (eventsInTransaction >= eventsPerTransaction || generatedRows >= totalRows) {
+                entries.add(transactionEntry(EntryType.TRANSACTIONEND));
+                eventsInTransaction = -1;
+            } else {
+                int count = (int) Math.min(rowsPerEvent, totalRows - generatedRows);
+                entries.add(rowDataEntry(count));
+                generatedRows += count;
+                rows += count;
+                eventsInTransaction++;
+            }
+        }
+        return track(entries, rows);
+    }
+
+    @Override
+    public Message getWithoutAck(int batchSize, Long timeout, TimeUnit unit) throws CanalClientException {
+        return getWithoutAck(batchSize);
+    }
+
+    @Override
+    public synchronized void ack(long batchId) throws CanalClientException {
+        if (unacked.remove(batchId) == null) {
+            throw new CanalClientException("unknown batchId: " + batchId);
+        }
+        ackedRows += unackedRows.remove(batchId);
+    }
+
+    @Override
+    public synchronized void rollback(long batchId) throws CanalClientException {
+        rollback();
+    }
+
+    @Override
+    public synchronized void rollback() throws CanalClientException {
+        //未ack的批次按原顺序排在待重新投递的批次之前
+        List<Message> pending = new ArrayList<>(unacked.values());
+        Collections.reverse(pending);
+        pending.forEach(redeliveries::addFirst);
+        unacked.clear();
+        unackedRows.clear();
+        rollbacks++;
+    }
+
+    @Override
+    public void stopRunning() throws CanalClientException {
+    }
+
+    /**
+     * 全部行均已生成并ack
+     *
+     * @return
+     */
+    public synchronized boolean isDrained() {
+        return generatedRows >= totalRows && eventsInTransaction < 0 && unacked.isEmpty() && redeliveries.isEmpty();
+    }
+
+    public long getAckedRows() {
+        return ackedRows;
+    }
+
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    private Message track(List<Entry> entries, long rows) {
+        long batchId = nextBatchId++;
+        Message message = new Message(batchId, entries);
+        unacked.put(batchId, message);
+        unackedRows.put(batchId, rows);
+        return message;
+    }
+
+    private long countRows(List<Entry> entries) {
+        long rows = 0;
+        for (Entry entry : entries) {
+            if (entry.getEntryType() == EntryType.ROWDATA) {
+                try {
+                    rows += RowChange.parseFrom(entry.getStoreValue()).getRowDatasCount();
+                } catch (Exception e) {
+                    throw new CanalClientException(e);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void idle() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Entry transactionEntry(EntryType type) {
+        Entry.Builder entry = Entry.newBuilder().setEntryType(type).setHeader(header(EventType.QUERY));
+        if (type == EntryType.TRANSACTIONBEGIN) {
+            entry.setStoreValue(TransactionBegin.newBuilder().setThreadId(1).build().toByteString());
+        } else {
+            entry.setStoreValue(TransactionEnd.newBuilder().setTransactionId(String.valueOf(offset)).build().toByteString());
+        }
+        return entry.build();
+    }
+
+    private Entry rowDataEntry(int rows) {
+        int pick = random.nextInt(100);
+        EventType eventType = pick < insertPercent ? EventType.INSERT
+                : pick < insertPercent + updatePercent ? EventType.UPDATE : EventType.DELETE;
+        RowChange.Builder rowChange = RowChange.newBuilder().setEventType(eventType);
+        for (int i = 0; i < rows; i++) {
+            List<Column> row = row(eventType);
+            RowData.Builder rowData = RowData.newBuilder();
+            if (eventType == EventType.DELETE) {
+                rowData.addAllBeforeColumns(row);
+            } else {
+                rowData.addAllAfterColumns(row);
+            }
+            rowChange.addRowDatas(rowData);
+        }
+        return Entry.newBuilder()
+                .setEntryType(EntryType.ROWDATA)
+                .setHeader(header(eventType))
+                .setStoreValue(rowChange.build().toByteString())
+                .build();
+    }
+
+    private Header header(EventType eventType) {
+        offset += 64;
+        return Header.newBuilder()
+                .setSchemaName(SCHEMA)
+                .setTableName(TABLE)
+                .setLogfileName(LOGFILE)
+                .setLogfileOffset(offset)
+                .setExecuteTime(System.currentTimeMillis())
+                .setEventType(eventType)
+                .build();
+    }
+
+    private List<Column> row(EventType eventType) {
+        List<Column> row = new ArrayList<>(columns);
+        boolean update = eventType == EventType.UPDATE;
+        row.add(column(0, "id", "bigint(20)", Types.BIGINT, String.valueOf(random.nextInt(keySpace)), false)
+                .toBuilder().setIsKey(true).build());
+        row.add(column(1, TIMESTAMP_FIELD, "varchar(32)", Types.VARCHAR, String.valueOf(System.nanoTime()), update));
+        for (int i = 2; i < columns; i++) {
+            boolean updated = update && random.nextInt(3) == 0;
+            switch (i % 4) {
+                case 0:
+                    row.add(column(i, "c" + i, "datetime", Types.TIMESTAMP, "2018-09-12 10:20:30", updated));
+                    break;
+                case 1:
+                    row.add(column(i, "c" + i, "int(11)", Types.INTEGER, String.valueOf(random.nextInt()), updated));
+                    break;
+                default:
+                    row.add(column(i, "c" + i, "varchar(255)", Types.VARCHAR, TEXT, updated));
+                    break;
+            }
+        }
+        return row;
+    }
+
+    private static Column column(int index, String name, String mysqlType, int sqlType, String value, boolean updated) {
+        return Column.newBuilder()
+                .setIndex(index)
+                .setName(name)
+                .setMysqlType(mysqlType)
+                .setSqlType(sqlType)
+                .setValue(value)
+                .setUpdated(updated)
+                .setIsNull(false)
+                .build();
+    }
+}
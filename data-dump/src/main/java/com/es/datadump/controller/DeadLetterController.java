@@ -0,0 +1,40 @@
+package com.es.datadump.controller;
+
+import com.es.datadump.manager.deadletter.DeadLetterStore;
+import com.es.datadump.model.DeadLetterReplayResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 死信管理
+ *
+ * @author yiheni
+ */
+@RestController
+@RequestMapping("/api/dead-letter")
+public class DeadLetterController {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterController.class);
+
+    @Autowired
+    private DeadLetterStore deadLetterStore;
+
+    /**
+     * 将死信文件中的文档按文档分区并行批量重放到ES
+     * 未开启外部版本号时，旧的死信会覆盖之后同步的新数据或恢复已删除的文档，须确认后传force=true
+     *
+     * @param force
+     * @return
+     */
+    @PostMapping("/replay")
+    public DeadLetterReplayResult replay(@RequestParam(value = "force", defaultValue = "false") boolean force) {
+        logger.info("-------------------------------------开始重放死信, force: {}---------------------------------------------", force);
+        return deadLetterStore.replay(force);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.es.datadump.converter.column;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * blob列解码配置
+ * 默认字符集作用于全部blob列，可按列覆盖（schema.table:列1=字符集|列2=字符集，逗号分隔）；
+ * 原始字节超过阈值的值不解码，按字节数组写入。转换器按字符集复用。
+ *
+ * @author yiheni
+ */
+public class BlobColumnConfig {
+
+    private final static Logger logger = LoggerFactory.getLogger(BlobColumnConfig.class);
+
+    @Value("${dump.column.blob.charset:UTF-8}")
+    private String defaultCharset;
+
+    @Value("${dump.column.blob.charsets:}")
+    private String columnCharsets;
+
+    @Value("${dump.column.blob.raw-threshold-kb:0}")
+    private int rawThresholdKb;
+
+    /**
+     * schema.table -> 列名 -> 字符集
+     */
+    private final Map<String, Map<String, Charset>> charsetMap = new HashMap<>();
+    private final Map<Charset, ColumnConverter> converters = new ConcurrentHashMap<>();
+    private ColumnConverter defaultConverter;
+
+    /**
+     * 解析配置，由spring init-method调用
+     */
+    public void init() {
+        defaultConverter = converterOf(Charset.forName(defaultCharset));
+        if (StringUtils.isNotBlank(columnCharsets)) {
+            for (String tableConfig : StringUtils.split(columnCharsets, ',')) {
+                String[] pair = StringUtils.split(tableConfig.trim(), ':');
+                if (pair.length != 2) {
+                    logger.warn("blob列字符集配置格式错误，已忽略: {}", tableConfig);
+                    continue;
+                }
+                Map<String, Charset> columns = charsetMap.computeIfAbsent(pair[0].trim().toLowerCase(Locale.ROOT),
+                        k -> new HashMap<>());
+                for (String columnConfig : StringUtils.split(pair[1], '|')) {
+                    String[] column = StringUtils.split(columnConfig.trim(), '=');
+                    if (column.length != 2) {
+                        logger.warn("blob列字符集配置格式错误，已忽略: {}", columnConfig);
+                        continue;
+                    }
+                    columns.put(column[0].trim().toLowerCase(Locale.ROOT), Charset.forName(column[1].trim()));
+                }
+            }
+        }
+        logger.info("blob列解码初始化完成, charset: {}, columnCharsets: {}, rawThresholdKb: {}",
+                defaultCharset, charsetMap, rawThresholdKb);
+    }
+
+    /**
+     * 表中各blob列的转换器
+     *
+     * @param table schema.table
+     * @return 按列名返回转换器
+     */
+    public Function<String, ColumnConverter> convertersOf(String table) {
+        Map<String, Charset> columns = charsetMap.get(table.toLowerCase(Locale.ROOT));
+        if (columns == null) {
+            return column -> defaultConverter;
+        }
+        return column -> {
+            Charset charset = columns.get(column.toLowerCase(Locale.ROOT));
+            return charset == null ? defaultConverter : converterOf(charset);
+        };
+    }
+
+    private ColumnConverter converterOf(Charset charset) {
+        return converters.computeIfAbsent(charset, k -> new BlobColumnConverter(k, rawThresholdKb * 1024));
+    }
+}
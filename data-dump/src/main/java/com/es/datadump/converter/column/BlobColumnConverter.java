@@ -0,0 +1,122 @@
+package com.es.datadump.converter.column;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.es.datadump.util.CharSetUtil;
+import com.google.protobuf.ByteString;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * blob列转换器
+ * canal把blob原始字节按ISO-8859-1转为字符串，protobuf中保存的是该字符串的UTF-8编码：
+ * 小于0x80的字节原样保存，其余字节保存为0xC2/0xC3开头的两个字节。
+ * 这里直接遍历ByteString还原原始字节，再用线程内复用的解码器按列的源字符集解码，
+ * 不再经过默认字符集解码、ISO-8859-1编码、目标字符集解码三次转换。
+ * 原始字节超过阈值时不解码，按字节数组写入ES（binary字段）。
+ *
+ * @author yiheni
+ */
+public class BlobColumnConverter implements ColumnConverter {
+
+    /**
+     * 线程内缓冲保留的上限，超过的值单独分配，避免大字段长期占用内存
+     */
+    private final static int MAX_RETAINED_BYTES = 1024 * 1024;
+
+    private final static ThreadLocal<DecodeBuffers> BUFFERS = ThreadLocal.withInitial(DecodeBuffers::new);
+
+    private final Charset charset;
+    private final int rawThreshold;
+
+    /**
+     * @param charset      blob内容的源字符集
+     * @param rawThreshold 原始字节数超过此值时按字节数组写入，小于等于0表示总是解码
+     */
+    public BlobColumnConverter(Charset charset, int rawThreshold) {
+        this.charset = charset;
+        this.rawThreshold = rawThreshold;
+    }
+
+    @Override
+    public Object convert(Column column) throws Exception {
+        ByteString value = column.getValueBytes();
+        int size = value.size();
+        if (size == 0) {
+            return StringUtils.EMPTY;
+        }
+        DecodeBuffers buffers = BUFFERS.get();
+        byte[] raw = size <= MAX_RETAINED_BYTES ? buffers.bytes(size) : new byte[size];
+        int length = 0;
+        ByteString.ByteIterator iterator = value.iterator();
+        while (iterator.hasNext()) {
+            byte b = iterator.nextByte();
+            if (b >= 0) {
+                raw[length++] = b;
+                continue;
+            }
+            if ((b & 0xFE) != 0xC2 || !iterator.hasNext()) {
+                //不是ISO-8859-1字符串的UTF-8编码，按原方式转换
+                return CharSetUtil.bytesToString(value.toByteArray(), StandardCharsets.ISO_8859_1.name(), charset.name());
+            }
+            raw[length++] = (byte) (((b & 0x1F) << 6) | (iterator.nextByte() & 0x3F));
+        }
+        if (rawThreshold > 0 && length > rawThreshold) {
+            return Arrays.copyOf(raw, length);
+        }
+        return decode(buffers, raw, length);
+    }
+
+    private String decode(DecodeBuffers buffers, byte[] raw, int length) throws Exception {
+        CharsetDecoder decoder = buffers.decoder(charset);
+        int capacity = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+        CharBuffer out = capacity <= MAX_RETAINED_BYTES ? buffers.chars(capacity) : CharBuffer.allocate(capacity);
+        ByteBuffer in = ByteBuffer.wrap(raw, 0, length);
+        CoderResult result = decoder.decode(in, out, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        result = decoder.flush(out);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        out.flip();
+        return out.toString();
+    }
+
+    /**
+     * 单个线程复用的字节、字符缓冲与按字符集缓存的解码器
+     */
+    private static class DecodeBuffers {
+        private byte[] bytes = new byte[256];
+        private CharBuffer chars = CharBuffer.allocate(256);
+        private final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+
+        byte[] bytes(int size) {
+            if (bytes.length < size) {
+                bytes = new byte[Math.max(size, bytes.length * 2)];
+            }
+            return bytes;
+        }
+
+        CharBuffer chars(int capacity) {
+            if (chars.capacity() < capacity) {
+                chars = CharBuffer.allocate(Math.max(capacity, chars.capacity() * 2));
+            }
+            chars.clear();
+            return chars;
+        }
+
+        CharsetDecoder decoder(Charset charset) {
+            return decoders.computeIfAbsent(charset, Charset::newDecoder).reset();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.es.datadump.converter.column;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.es.stone.constant.EsConstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 单表的列转换计划
+ * 首次见到表结构时按列元数据编译：每列预先选定转换器，主键列按列名升序预先排好，
+ * 逐行解析时只需按下标循环，不再逐列比较字段类型，也无需加锁。
+ * 按列过滤规则排除的列不分配转换器，解码时直接跳过；blob列按列配置的字符集选用转换器。
+ *
+ * @author yiheni
+ */
+public class ColumnConversionPlan {
+
+    private final static Logger logger = LoggerFactory.getLogger(ColumnConversionPlan.class);
+
+    private final String[] names;
+    private final String[] mysqlTypes;
+    private final boolean[] keys;
+    private final ColumnConverter[] converters;
+    /**
+     * 主键列下标，按主键列名升序，兼容联合主键
+     */
+    private final int[] keyIndexes;
+
+    private ColumnConversionPlan(String[] names, String[] mysqlTypes, boolean[] keys, ColumnConverter[] converters, int[] keyIndexes) {
+        this.names = names;
+        this.mysqlTypes = mysqlTypes;
+        this.keys = keys;
+        this.converters = converters;
+        this.keyIndexes = keyIndexes;
+    }
+
+    /**
+     * 按列元数据编译转换计划
+     *
+     * @param columns
+     * @return
+     */
+    public static ColumnConversionPlan compile(List<Column> columns) {
+        return compile(columns, null);
+    }
+
+    /**
+     * 按列元数据与列过滤条件编译转换计划，主键列总是保留
+     *
+     * @param columns
+     * @param columnFilter 为null时保留全部列
+     * @return
+     */
+    public static ColumnConversionPlan compile(List<Column> columns, Predicate<String> columnFilter) {
+        return compile(columns, columnFilter, null);
+    }
+
+    /**
+     * 按列元数据、列过滤条件与blob列转换器编译转换计划，主键列总是保留
+     *
+     * @param columns
+     * @param columnFilter   为null时保留全部列
+     * @param blobConverters 按列名取blob列转换器，为null时使用默认转换器
+     * @return
+     */
+    public static ColumnConversionPlan compile(List<Column> columns, Predicate<String> columnFilter,
+                                               Function<String, ColumnConverter> blobConverters) {
+        int size = columns.size();
+        String[] names = new String[size];
+        String[] mysqlTypes = new String[size];
+        boolean[] keys = new boolean[size];
+        ColumnConverter[] converters = new ColumnConverter[size];
+        List<Integer> keyIndexList = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Column column = columns.get(i);
+            names[i] = column.getName();
+            mysqlTypes[i] = column.getMysqlType();
+            keys[i] = column.getIsKey();
+            if (column.getIsKey() || columnFilter == null || columnFilter.test(column.getName())) {
+                converters[i] = blobConverters != null && EsConstant.BLOB.equals(column.getMysqlType())
+                        ? blobConverters.apply(column.getName()) : ColumnConverters.forMysqlType(column.getMysqlType());
+            }
+            if (column.getIsKey()) {
+                keyIndexList.add(i);
+            }
+        }
+        //根据mysql的主键字段名升序排列
+        keyIndexList.sort((a, b) -> names[a].compareTo(names[b]));
+        int[] keyIndexes = new int[keyIndexList.size()];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            keyIndexes[i] = keyIndexList.get(i);
+        }
+        return new ColumnConversionPlan(names, mysqlTypes, keys, converters, keyIndexes);
+    }
+
+    /**
+     * 判断行数据的列结构是否与计划一致，不一致说明表结构已变更，需要重新编译
+     *
+     * @param columns
+     * @return
+     */
+    public boolean matches(List<Column> columns) {
+        if (columns.size() != names.length) {
+            return false;
+        }
+        for (int i = 0; i < names.length; i++) {
+            Column column = columns.get(i);
+            if (!names[i].equals(column.getName()) || !mysqlTypes[i].equals(column.getMysqlType())
+                    || keys[i] != column.getIsKey()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析mysql的binlog行数据，返回key列名和值value，并组装es_key
+     *
+     * @param columns
+     * @return
+     */
+    public Map decode(List<Column> columns) {
+        Map colMap = new HashMap((int) (names.length / 0.75f) + 2);
+        boolean errorLog = false;
+        for (int i = 0; i < converters.length; i++) {
+            if (converters[i] == null) {
+                continue;
+            }
+            Column column = columns.get(i);
+            if (keys[i]) {
+                colMap.put(names[i], column.getValue());
+            }
+            try {
+                Object value = converters[i].convert(column);
+                if (value != null) {
+                    colMap.put(names[i], value);
+                }
+            } catch (Exception e) {
+                logger.error("数据库{}字段映射异常: key: {}, value: {}", mysqlTypes[i], names[i], column.getValue(), e);
+                errorLog = true;
+            }
+        }
+        String esKey = buildKey(columns);
+        colMap.put(EsConstant.ES_KEY, esKey);
+        if (errorLog) {
+            logger.error("the PK value in ES is: {}", esKey);
+        }
+        return colMap;
+    }
+
+    /**
+     * 按主键列名升序拼接主键值，与ElasticSearchDumpManager.esKeyString一致
+     *
+     * @param columns
+     * @return
+     */
+    public String buildKey(List<Column> columns) {
+        if (keyIndexes.length == 1) {
+            return columns.get(keyIndexes[0]).getValue();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int keyIndex : keyIndexes) {
+            sb.append(columns.get(keyIndex).getValue());
+        }
+        return sb.toString();
+    }
+}
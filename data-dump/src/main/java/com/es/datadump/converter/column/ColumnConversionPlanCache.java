@@ -0,0 +1,68 @@
+package com.es.datadump.converter.column;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 按表缓存列转换计划
+ * 读取无锁；列结构与计划不一致或观察到该表的DDL时重新编译。
+ *
+ * @author yiheni
+ */
+public class ColumnConversionPlanCache {
+
+    private final Map<String, ColumnConversionPlan> plans = new ConcurrentHashMap<>();
+    private final Function<String, Predicate<String>> columnFilters;
+    private final Function<String, Function<String, ColumnConverter>> blobConverters;
+
+    public ColumnConversionPlanCache() {
+        this(table -> null);
+    }
+
+    /**
+     * @param columnFilters 按表取列过滤条件，返回null表示保留全部列
+     */
+    public ColumnConversionPlanCache(Function<String, Predicate<String>> columnFilters) {
+        this(columnFilters, table -> null);
+    }
+
+    /**
+     * @param columnFilters  按表取列过滤条件，返回null表示保留全部列
+     * @param blobConverters 按表取blob列转换器，返回null表示使用默认转换器
+     */
+    public ColumnConversionPlanCache(Function<String, Predicate<String>> columnFilters,
+                                     Function<String, Function<String, ColumnConverter>> blobConverters) {
+        this.columnFilters = columnFilters;
+        this.blobConverters = blobConverters;
+    }
+
+    /**
+     * 获取表的转换计划，未编译或表结构已变更时按当前列结构编译
+     *
+     * @param table   schema.table
+     * @param columns
+     * @return
+     */
+    public ColumnConversionPlan planFor(String table, List<Column> columns) {
+        ColumnConversionPlan plan = plans.get(table);
+        if (plan == null || !plan.matches(columns)) {
+            plan = ColumnConversionPlan.compile(columns, columnFilters.apply(table), blobConverters.apply(table));
+            plans.put(table, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * 表结构变更，丢弃已编译的计划
+     *
+     * @param table schema.table
+     */
+    public void invalidate(String table) {
+        plans.remove(table);
+    }
+}
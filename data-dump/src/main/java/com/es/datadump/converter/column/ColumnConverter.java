@@ -0,0 +1,21 @@
+package com.es.datadump.converter.column;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+
+/**
+ * 单列值转换器，按mysql字段类型在编译转换计划时选定
+ *
+ * @author yiheni
+ */
+public interface ColumnConverter {
+
+    /**
+     * 转换列值
+     *
+     * @param column
+     * @return 返回null表示该列不写入ES
+     * @throws Exception 值无法按类型解析
+     */
+    Object convert(Column column) throws Exception;
+
+}
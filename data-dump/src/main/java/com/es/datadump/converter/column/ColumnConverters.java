@@ -0,0 +1,115 @@
+package com.es.datadump.converter.column;
+
+import com.es.stone.constant.EsConstant;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParsePosition;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+/**
+ * 按mysql字段类型提供列值转换器
+ * 日期格式化使用线程安全的DateTimeFormatter，转换时无需加锁。
+ *
+ * @author yiheni
+ */
+public class ColumnConverters {
+
+    private final static DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private final static DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private final static DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private final static LocalDate EPOCH_DATE = LocalDate.of(1970, 1, 1);
+
+    /**
+     * timestamp / datetime，时间戳单独处理存入ES
+     * 为空或零日期时不组装该字段，否则es报错；带毫秒的值只取到秒
+     */
+    public final static ColumnConverter DATETIME = column -> {
+        if (StringUtils.isBlank(column.getValue()) || isZeroDate(column.getValue())) {
+            return null;
+        }
+        LocalDateTime dateTime = LocalDateTime.from(parsePrefix(DATETIME_FORMATTER, column.getValue()));
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    };
+
+    /**
+     * date，为空或零日期时不组装该字段
+     */
+    public final static ColumnConverter DATE = column -> {
+        if (StringUtils.isBlank(column.getValue()) || isZeroDate(column.getValue())) {
+            return null;
+        }
+        LocalDate date = LocalDate.from(parsePrefix(DATE_FORMATTER, column.getValue()));
+        return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    };
+
+    /**
+     * time，为空时不组装该字段
+     */
+    public final static ColumnConverter TIME = column -> {
+        if (StringUtils.isBlank(column.getValue())) {
+            return null;
+        }
+        LocalTime time = LocalTime.from(parsePrefix(TIME_FORMATTER, column.getValue()));
+        return Date.from(EPOCH_DATE.atTime(time).atZone(ZoneId.systemDefault()).toInstant());
+    };
+
+    /**
+     * blob，按UTF-8解码，按列配置字符集时由BlobColumnConfig提供转换器
+     */
+    public final static ColumnConverter BLOB = new BlobColumnConverter(StandardCharsets.UTF_8, 0);
+
+    /**
+     * 其余类型原样写入
+     */
+    public final static ColumnConverter STRING = column -> column.getValue();
+
+    private ColumnConverters() {
+    }
+
+    /**
+     * 根据mysql字段类型选择转换器
+     *
+     * @param mysqlType
+     * @return
+     */
+    public static ColumnConverter forMysqlType(String mysqlType) {
+        if (EsConstant.TIMESTAMP.equals(mysqlType) || EsConstant.DATETIME.equals(mysqlType)) {
+            return DATETIME;
+        } else if (EsConstant.DATE.equals(mysqlType)) {
+            return DATE;
+        } else if (EsConstant.TIME.equals(mysqlType)) {
+            return TIME;
+        } else if (EsConstant.BLOB.equals(mysqlType)) {
+            return BLOB;
+        }
+        return STRING;
+    }
+
+    /**
+     * mysql未开启NO_ZERO_DATE / NO_ZERO_IN_DATE时可写入零日期0000-00-00及年、月、日部分为0的日期（如2020-00-00），
+     * 不是合法日期，DateTimeFormatter无法解析，按空值处理
+     *
+     * @param value yyyy-MM-dd开头的列值
+     * @return
+     */
+    static boolean isZeroDate(String value) {
+        if (value.length() < 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return false;
+        }
+        return value.startsWith("0000") || value.startsWith("00", 5) || value.startsWith("00", 8);
+    }
+
+    /**
+     * 只解析匹配格式的前缀，与原SimpleDateFormat.parse的行为一致
+     */
+    private static TemporalAccessor parsePrefix(DateTimeFormatter formatter, String value) {
+        return formatter.parse(value, new ParsePosition(0));
+    }
+}
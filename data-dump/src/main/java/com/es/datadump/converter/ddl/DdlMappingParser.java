@@ -0,0 +1,198 @@
+package com.es.datadump.converter.ddl;
+
+import com.es.datadump.converter.column.ColumnConverter;
+import com.es.datadump.converter.column.ColumnConverters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 解析ALTER TABLE语句中新增的列，换算为ES字段mapping
+ * 只处理ADD COLUMN与改名的CHANGE COLUMN：ES不能修改已有字段的类型，
+ * 同名的MODIFY / CHANGE只在结果中记为类型变更，交由调用方提示重建索引。
+ * 字段类型按ColumnConverters实际写入的值确定，与已有列经ES动态mapping得到的类型一致：
+ * 转为Date的timestamp、datetime、date、time列为date，其余类型（含数值、带精度的时间）均按字符串写入，为text并带keyword子字段。
+ *
+ * @author yiheni
+ */
+public class DdlMappingParser {
+
+    private final static Pattern ALTER_TABLE = Pattern.compile(
+            "^\\s*ALTER\\s+(?:ONLINE\\s+|OFFLINE\\s+|IGNORE\\s+)*TABLE\\s+(?:`[^`]+`|[\\w.$]+)(?:\\s*\\.\\s*(?:`[^`]+`|[\\w$]+))?\\s+(.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern COLUMN_CLAUSE = Pattern.compile(
+            "^(ADD|MODIFY|CHANGE)(?:\\s+COLUMN)?\\s+(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern NOT_COLUMN = Pattern.compile(
+            "^(INDEX|KEY|PRIMARY|UNIQUE|FULLTEXT|SPATIAL|CONSTRAINT|FOREIGN|PARTITION|CHECK)\\b.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern COMMENTS = Pattern.compile("/\\*.*?\\*/|--[^\\n]*|#[^\\n]*", Pattern.DOTALL);
+
+    private final static Map<String, Object> DATE = Collections.singletonMap("type", "date");
+    private final static Map<String, Object> TEXT = textWithKeyword();
+
+    /**
+     * 解析结果：需要新增的字段mapping，以及无法在线修改类型的字段
+     */
+    public static class Result {
+        private final Map<String, Object> properties = new LinkedHashMap<>();
+        private final List<String> retypedColumns = new ArrayList<>();
+
+        public Map<String, Object> getProperties() {
+            return properties;
+        }
+
+        public List<String> getRetypedColumns() {
+            return retypedColumns;
+        }
+    }
+
+    /**
+     * 解析DDL，非ALTER TABLE语句返回空结果
+     *
+     * @param sql
+     * @return
+     */
+    public static Result parse(String sql) {
+        Result result = new Result();
+        if (sql == null) {
+            return result;
+        }
+        Matcher alter = ALTER_TABLE.matcher(COMMENTS.matcher(sql).replaceAll(" "));
+        if (!alter.matches()) {
+            return result;
+        }
+        for (String clause : splitTopLevel(alter.group(1))) {
+            Matcher column = COLUMN_CLAUSE.matcher(clause.trim());
+            if (!column.matches()) {
+                continue;
+            }
+            String action = column.group(1).toUpperCase(Locale.ROOT);
+            String definition = column.group(2).trim();
+            if (NOT_COLUMN.matcher(definition).matches()) {
+                continue;
+            }
+            if ("ADD".equals(action) && definition.startsWith("(") && definition.endsWith(")")) {
+                //ADD (col1 type, col2 type)
+                for (String added : splitTopLevel(definition.substring(1, definition.length() - 1))) {
+                    addColumn(result, tokenize(added.trim()), 0);
+                }
+            } else if ("CHANGE".equals(action)) {
+                List<String> tokens = tokenize(definition);
+                if (tokens.size() >= 3 && !tokens.get(0).equals(tokens.get(1))) {
+                    addColumn(result, tokens, 1);
+                } else if (!tokens.isEmpty()) {
+                    result.retypedColumns.add(tokens.get(0));
+                }
+            } else if ("MODIFY".equals(action)) {
+                List<String> tokens = tokenize(definition);
+                if (!tokens.isEmpty()) {
+                    result.retypedColumns.add(tokens.get(0));
+                }
+            } else {
+                addColumn(result, tokenize(definition), 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * mysql字段类型对应的ES字段mapping，与该类型的列值经ColumnConverters转换后由ES动态mapping得到的类型一致
+     *
+     * @param mysqlType 如 varchar(32)、datetime
+     * @return
+     */
+    public static Map<String, Object> fieldOf(String mysqlType) {
+        ColumnConverter converter = ColumnConverters.forMysqlType(mysqlType.toLowerCase(Locale.ROOT));
+        if (converter == ColumnConverters.DATETIME || converter == ColumnConverters.DATE || converter == ColumnConverters.TIME) {
+            return DATE;
+        }
+        return TEXT;
+    }
+
+    private static void addColumn(Result result, List<String> tokens, int nameIndex) {
+        if (tokens.size() <= nameIndex + 1) {
+            return;
+        }
+        result.properties.put(tokens.get(nameIndex), fieldOf(tokens.get(nameIndex + 1)));
+    }
+
+    /**
+     * 按空白切分列定义，去掉标识符的反引号，括号内的内容保留在同一个词中
+     */
+    private static List<String> tokenize(String definition) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        int depth = 0;
+        boolean quoted = false;
+        for (char c : definition.toCharArray()) {
+            if (c == '`') {
+                quoted = !quoted;
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+            if (Character.isWhitespace(c) && depth == 0 && !quoted) {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+                continue;
+            }
+            token.append(c);
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * 按不在括号、引号内的逗号切分子句
+     */
+    private static List<String> splitTopLevel(String text) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    private static Map<String, Object> textWithKeyword() {
+        //与ES对字符串的动态mapping一致
+        Map<String, Object> keyword = new HashMap<>();
+        keyword.put("type", "keyword");
+        keyword.put("ignore_above", 256);
+        Map<String, Object> text = new HashMap<>();
+        text.put("type", "text");
+        text.put("fields", Collections.singletonMap("keyword", keyword));
+        return Collections.unmodifiableMap(text);
+    }
+}
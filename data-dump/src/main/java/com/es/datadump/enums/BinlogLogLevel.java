@@ -0,0 +1,40 @@
+package com.es.datadump.enums;
+
+/**
+ * binlog事件日志的详细程度
+ *
+ * @author yiheni
+ */
+public enum BinlogLogLevel {
+    /**
+     * 只记录批次摘要与异常（延迟超限、解析失败、DDL）
+     */
+    SUMMARY("SUMMARY"),
+    /**
+     * 在摘要基础上按采样率记录行变更与事务边界
+     */
+    SAMPLED("SAMPLED"),
+    /**
+     * 记录全部行变更与事务边界，仅用于排查单表问题
+     */
+    ROW("ROW");
+
+    private String desc;
+
+    BinlogLogLevel(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public static BinlogLogLevel getByDesc(String desc) {
+        for (BinlogLogLevel level : values()) {
+            if (level.getDesc().equalsIgnoreCase(desc)) {
+                return level;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package com.es.datadump.enums;
+
+/**
+ * binlog写入ES的方式
+ *
+ * @author yiheni
+ */
+public enum DumpApplyMode {
+    /**
+     * 按es_key分通道并行写入，吞吐最高，同一事务的变更可能分散在不同批量请求中
+     */
+    LANE("LANE"),
+    /**
+     * 按MySQL事务边界组装批量请求：小事务合并为一个请求，超大事务按批量上限拆分，
+     * 每个destination的批量请求按binlog顺序依次提交
+     */
+    TRANSACTION("TRANSACTION");
+
+    private String desc;
+
+    DumpApplyMode(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public static DumpApplyMode getByDesc(String desc) {
+        for (DumpApplyMode mode : values()) {
+            if (mode.getDesc().equalsIgnoreCase(desc)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
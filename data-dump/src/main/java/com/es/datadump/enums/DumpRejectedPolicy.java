@@ -0,0 +1,76 @@
+package com.es.datadump.enums;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 同步线程池队列满时的拒绝策略
+ *
+ * @author yiheni
+ */
+public enum DumpRejectedPolicy {
+    /**
+     * 由提交线程直接执行，天然形成反压
+     */
+    CALLER_RUNS("CALLER_RUNS") {
+        @Override
+        public RejectedExecutionHandler toHandler() {
+            return new ThreadPoolExecutor.CallerRunsPolicy();
+        }
+    },
+    /**
+     * 阻塞提交线程，直到队列有空位
+     */
+    BLOCK("BLOCK") {
+        @Override
+        public RejectedExecutionHandler toHandler() {
+            return (r, executor) -> {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("线程池已关闭：" + executor);
+                }
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("等待线程池队列时被中断", e);
+                }
+            };
+        }
+    },
+    /**
+     * 直接抛出RejectedExecutionException
+     */
+    ABORT("ABORT") {
+        @Override
+        public RejectedExecutionHandler toHandler() {
+            return new ThreadPoolExecutor.AbortPolicy();
+        }
+    };
+
+    private String desc;
+
+    DumpRejectedPolicy(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    /**
+     * 生成对应的拒绝处理器
+     *
+     * @return
+     */
+    public abstract RejectedExecutionHandler toHandler();
+
+    public static DumpRejectedPolicy getByDesc(String desc) {
+        for (DumpRejectedPolicy policy : values()) {
+            if (policy.getDesc().equalsIgnoreCase(desc)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+}
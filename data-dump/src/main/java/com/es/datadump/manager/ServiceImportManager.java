@@ -2,6 +2,8 @@ package com.es.datadump.manager;
 
 import com.alibaba.fastjson.JSON;
 import com.es.stone.manager.ElasticSearchDumpManager;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.index.VersionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +38,50 @@ public class ServiceImportManager {
         return colMap;
     }
 
+    /**
+     * 区分索引进行业务关联转换，返回批量写入ES的请求
+     *
+     * @param colMap
+     * @param index
+     * @return
+     */
+    public DocWriteRequest buildWriteRequest(Map colMap, String index) {
+        if ("db_search.tb_ts".equals(index)) {
+            //判断是哪种特殊索引，根据需求，处理数据
+            txListInfoConvert(colMap, index);
+        }
+        return elasticSearchDumpManager.buildUpsertRequest(colMap, index);
+    }
+
+    /**
+     * 区分索引进行业务关联转换，返回带外部版本号的整体覆盖请求
+     * 外部版本号不支持部分更新，行数据为完整的after镜像，整体覆盖与upsert结果一致
+     *
+     * @param colMap
+     * @param index
+     * @param version binlog位点换算的版本号
+     * @return
+     */
+    public DocWriteRequest buildVersionedWriteRequest(Map colMap, String index, long version) {
+        if ("db_search.tb_ts".equals(index)) {
+            //判断是哪种特殊索引，根据需求，处理数据
+            txListInfoConvert(colMap, index);
+        }
+        return elasticSearchDumpManager.buildIndexRequest(colMap, index)
+                .version(version)
+                .versionType(VersionType.EXTERNAL_GTE);
+    }
+
+    /**
+     * 判断索引能否只写入变更的列，有业务关联转换的索引派生字段依赖整行数据，只能整行写入
+     *
+     * @param index
+     * @return
+     */
+    public boolean supportsPartialUpdate(String index) {
+        return !"db_search.tb_ts".equals(index);
+    }
+
     /**
      * 根据特殊业务表同步数据
      *
@@ -44,8 +90,18 @@ public class ServiceImportManager {
      */
     protected void txListInfoDump(Map colMap, String index) {
         logger.info("ServiceImportManager.txListInfoDump colMap:{}", JSON.toJSONString(colMap));
-        //此处可进行特殊逻辑处理，根据需求来
+        txListInfoConvert(colMap, index);
         elasticSearchDumpManager.insertOrUpdateToEs(colMap, index);
     }
 
+    /**
+     * 根据特殊业务表转换数据
+     *
+     * @param colMap
+     * @param index
+     */
+    protected void txListInfoConvert(Map colMap, String index) {
+        //此处可进行特殊逻辑处理，根据需求来
+    }
+
 }
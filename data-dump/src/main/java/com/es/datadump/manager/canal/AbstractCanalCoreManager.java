@@ -3,29 +3,44 @@ package com.es.datadump.manager.canal;
 import com.alibaba.otter.canal.client.CanalConnector;
 import com.alibaba.otter.canal.protocol.CanalEntry.*;
 import com.alibaba.otter.canal.protocol.Message;
+import com.es.datadump.converter.column.BlobColumnConfig;
+import com.es.datadump.converter.column.ColumnConversionPlan;
+import com.es.datadump.converter.column.ColumnConversionPlanCache;
+import com.es.datadump.enums.DumpApplyMode;
+import com.es.datadump.enums.DumpRejectedPolicy;
 import com.es.datadump.manager.ServiceImportManager;
-import com.es.datadump.util.CharSetUtil;
+import com.es.datadump.manager.canal.CanalPrefetchBuffer.PrefetchedMessage;
+import com.es.datadump.manager.elasticsearch.ElasticSearchBulkManager;
+import com.es.datadump.manager.elasticsearch.ElasticSearchBulkManager.BufferedWrite;
+import com.es.datadump.manager.elasticsearch.ElasticSearchMappingManager;
+import com.es.datadump.manager.elasticsearch.TransactionBulkAssembler;
+import com.es.datadump.manager.executor.DumpExecutorManager;
+import com.es.datadump.manager.executor.DumpLaneScheduler;
+import com.es.datadump.manager.log.BinlogEventLogManager;
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import com.es.datadump.manager.spool.DumpSpool;
+import com.es.datadump.manager.spool.SpoolRecord;
+import com.es.datadump.model.BinlogPosition;
+import com.es.datadump.model.DumpRow;
 import com.es.stone.constant.EsConstant;
 import com.es.stone.manager.ElasticSearchDumpManager;
-import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
-import org.apache.commons.io.Charsets;
-import org.apache.commons.lang.SystemUtils;
-import org.apache.commons.lang3.StringUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.index.VersionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.util.Assert;
-import org.springframework.util.CollectionUtils;
 
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * 同步核心类
@@ -35,37 +50,63 @@ import java.util.concurrent.TimeUnit;
 public class AbstractCanalCoreManager {
 
     private final static Logger logger = LoggerFactory.getLogger(AbstractCanalCoreManager.class);
-    private static final String SEP = SystemUtils.LINE_SEPARATOR;
-    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    /**
+     * 预取队列满或空时单次等待的时间，等待期间拉取线程继续确认已完成的批次
+     */
+    private static final long PREFETCH_WAIT_MS = 100L;
+    /**
+     * 按事务写入时，单个destination排队等待提交的批量单元上限
+     */
+    private static final int TRANSACTION_QUEUE_CAPACITY = 64;
+    /**
+     * 停止时超过截止时间后，等待回滚、检查点落盘的宽限时间，之后强制中断
+     */
+    private static final long STOP_GRACE_MS = 1000L;
     private volatile boolean running = false;
+    /**
+     * 停止时等待在途批次的截止时间（System.currentTimeMillis），运行期间不限
+     */
+    private volatile long stopDeadline = Long.MAX_VALUE;
     private Thread.UncaughtExceptionHandler handler = (t, e) -> logger.error("parse events has an error", e);
     private Thread thread = null;
+    private Thread dispatchThread = null;
     private CanalConnector canalConnector;
-    private static String context_format;
-    private static String row_format;
-    private static String transaction_format;
     private String destination;
+    private CanalAckWindow ackWindow = new CanalAckWindow(4);
+    private long rollbackBackoffMs = 1000L;
+    private CanalBatchSizeController batchSizeController = new CanalBatchSizeController(128, 128, 128, 0L, Long.MAX_VALUE, Long.MAX_VALUE);
+    private CanalPrefetchBuffer prefetchBuffer = new CanalPrefetchBuffer(2, Long.MAX_VALUE);
 
     private ElasticSearchDumpManager elasticSearchDumpManager;
     private ServiceImportManager serviceImportManager;
-    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    private final SimpleDateFormat sdfDate = new SimpleDateFormat("yyyy-MM-dd");
-    private final SimpleDateFormat sdfTime = new SimpleDateFormat("HH:mm:ss");
-
-    static {
-        context_format = SEP + "****************************************************" + SEP;
-        context_format += "* Batch Id: [{}] ,count : [{}] , memSize : [{}] , Time : {}" + SEP;
-        context_format += "* Start : [{}] " + SEP;
-        context_format += "* End : [{}] " + SEP;
-        context_format += "****************************************************" + SEP;
-
-        row_format = SEP
-                + "----------------> binlog[{}:{}] , name[{},{}] , eventType : {} , executeTime : {} , delay : {}ms"
-                + SEP;
-
-        transaction_format = SEP + "================> binlog[{}:{}] , executeTime : {} , delay : {}ms" + SEP;
+    private DumpExecutorManager dumpExecutorManager;
+    private DumpLaneScheduler dumpLaneScheduler;
+    private ElasticSearchBulkManager elasticSearchBulkManager;
+    private ElasticSearchMappingManager elasticSearchMappingManager;
+    private DumpMetricsManager dumpMetricsManager;
+    private BinlogEventLogManager binlogEventLogManager;
+    private DumpSpool spool;
+    private DumpApplyMode applyMode = DumpApplyMode.LANE;
+    private boolean externalVersion = false;
 
-    }
+    /**
+     * UPDATE事件是否只写入变更的列
+     */
+    private boolean partialUpdate = false;
+    private ThreadPoolExecutor transactionExecutor;
+    private CanalPositionCheckpoint checkpoint;
+    /**
+     * 重启后跳过此位点及之前的entry，越过后置空
+     */
+    private BinlogPosition skipUntil;
+    /**
+     * 启动时的本地检查点，开启外部版本号时作为binlog序号回退的判断基准
+     */
+    private BinlogPosition startPosition;
+    private long skippedEntries;
+    private ColumnConversionPlanCache columnConversionPlanCache = new ColumnConversionPlanCache();
+    private CanalEntryFilter entryFilter;
+    private BlobColumnConfig blobColumnConfig;
 
     public AbstractCanalCoreManager(String destination) {
         this(destination, null);
@@ -78,53 +119,153 @@ public class AbstractCanalCoreManager {
 
     public void start() {
         Assert.notNull(canalConnector, "connector is null");
-        thread = new Thread(() -> process());
+        if (applyMode == DumpApplyMode.TRANSACTION && spool == null) {
+            //单线程按binlog顺序提交批量单元，同一文档跨事务的变更不会乱序
+            transactionExecutor = dumpExecutorManager.newExecutor("txn-" + destination, 1,
+                    TRANSACTION_QUEUE_CAPACITY, DumpRejectedPolicy.BLOCK);
+        }
+        if (checkpoint != null) {
+            skipUntil = checkpoint.getPosition();
+            startPosition = skipUntil;
+        }
+        columnConversionPlanCache = new ColumnConversionPlanCache(
+                entryFilter == null ? table -> null : entryFilter::columnFilterOf,
+                blobColumnConfig == null ? table -> null : blobColumnConfig::convertersOf);
+        thread = new Thread(() -> process(), "canal-fetch-" + destination);
+        dispatchThread = new Thread(() -> dispatch(), "canal-dispatch-" + destination);
 
         thread.setUncaughtExceptionHandler(handler);
-        thread.start();
+        dispatchThread.setUncaughtExceptionHandler(handler);
         running = true;
+        thread.start();
+        dispatchThread.start();
     }
 
     public void stop() {
+        stop(Long.MAX_VALUE);
+    }
+
+    /**
+     * 分阶段停止：停止拉取；截止时间前等待已拉取的批次分派、写入ES并按顺序ack；
+     * 超时未写完的批次不ack，回滚后由canal重新投递；最后检查点落盘，记录最终确认位点。
+     *
+     * @param deadline 截止时间（System.currentTimeMillis），Long.MAX_VALUE表示一直等待
+     */
+    public void stop(long deadline) {
         if (!running) {
             return;
         }
+        stopDeadline = deadline;
         running = false;
-        if (thread != null) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                logger.error("canal线程join异常:", e);
+        try {
+            //拉取线程退出前会等待已预取的批次分派、写入并确认，之后分派线程取空队列后退出
+            long joinDeadline = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline + STOP_GRACE_MS;
+            joinUntil(thread, joinDeadline);
+            joinUntil(dispatchThread, joinDeadline);
+            if (isAlive(thread) || isAlive(dispatchThread)) {
+                //写入ES阻塞，强制中断，未ack的批次重启后由canal重新投递
+                logger.warn("canal线程未在截止时间内退出，强制中断, destination: {}", destination);
+                interrupt(thread);
+                interrupt(dispatchThread);
+                joinUntil(thread, System.currentTimeMillis() + STOP_GRACE_MS);
+                joinUntil(dispatchThread, System.currentTimeMillis() + STOP_GRACE_MS);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("canal线程join异常:", e);
         }
+        logger.info("canal消费已停止, destination: {}, 最终确认位点: {}", destination, ackWindow.getLastAckedPosition());
 
         MDC.remove("destination");
     }
 
+    private static void joinUntil(Thread thread, long deadline) throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        if (deadline == Long.MAX_VALUE) {
+            thread.join();
+        } else {
+            thread.join(Math.max(1L, deadline - System.currentTimeMillis()));
+        }
+    }
+
+    private static boolean isAlive(Thread thread) {
+        return thread != null && thread.isAlive();
+    }
+
+    private static void interrupt(Thread thread) {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
     private void process() {
-        int batchSize = 128;
         while (running) {
             try {
                 MDC.put("destination", destination);
                 canalConnector.connect();
-                canalConnector.subscribe();
+                if (entryFilter != null && !entryFilter.getSubscribeFilter().isEmpty()) {
+                    // 白名单下推到canal服务端，不需要的表不再传输
+                    canalConnector.subscribe(entryFilter.getSubscribeFilter());
+                } else {
+                    canalConnector.subscribe();
+                }
                 while (running) {
+                    // 按顺序确认已写入ES的批次，未确认批次达到上限时等待队首批次写入完成
+                    ackCompleted();
+                    while (ackWindow.isFull() && running) {
+                        ackWindow.awaitHead(PREFETCH_WAIT_MS);
+                        ackCompleted();
+                    }
+                    if (!running) {
+                        break;
+                    }
+
                     // 获取指定数量的数据
-                    Message message = canalConnector.getWithoutAck(batchSize);
+                    Message message = canalConnector.getWithoutAck(batchSizeController.getBatchSize());
                     long batchId = message.getId();
                     int size = message.getEntries().size();
                     if (batchId != -1 && size != 0) {
-                        printSummary(message, batchId, size);
-                        syncEntry(message.getEntries());
+                        long memSize = printSummary(message, batchId, size);
+                        Entry last = message.getEntries().get(size - 1);
+                        long lagMs = System.currentTimeMillis() - last.getHeader().getExecuteTime();
+                        dumpMetricsManager.recordBatch(destination, size, memSize);
+                        List<Entry> entries = skipApplied(message.getEntries());
+                        if (entries.isEmpty()) {
+                            // 整批在检查点之前，已写入过ES，直接确认
+                            ackWindow.add(batchId, CompletableFuture.completedFuture(null), positionOf(last));
+                        } else {
+                            checkSequence(entries);
+                            // 提交解析任务后放入预取队列，由分派线程按顺序写入，当前线程继续拉取下一批
+                            PrefetchedMessage prefetched = new PrefetchedMessage(batchId, memSize,
+                                    earliestExecuteTimes(entries), parseEntry(entries), transactionEnds(entries));
+                            ackWindow.add(batchId, prefetched.getApplied(), positionOf(last));
+                            offerPrefetched(prefetched);
+                        }
+                        // 根据延迟、写入耗时与批次内存调整下一次拉取的批次大小
+                        batchSizeController.onFetched(size, lagMs, memSize, ackWindow.getLastApplyMillis());
+                    } else {
+                        if (batchId != -1) {
+                            ackWindow.add(batchId, CompletableFuture.completedFuture(null), null);
+                        }
+                        batchSizeController.onIdle();
                     }
-
-                    // 提交确认
-                    canalConnector.ack(batchId);
-                    // 处理失败, 回滚数据
-                    // connector.rollback(batchId)
+                }
+                // 停止拉取后，截止时间前等待在途批次写入并确认；超时未完成的批次回滚，由canal重新投递
+                boolean drained = ackWindow.awaitAll(stopDeadline);
+                ackCompleted();
+                if (!drained) {
+                    logger.warn("停止时在途批次未在截止时间内写入ES, 未确认批次数: {}", ackWindow.size());
+                    rollback();
+                }
+                if (checkpoint != null) {
+                    checkpoint.sync();
                 }
             } catch (Exception e) {
                 logger.error("process error!", e);
+                // 处理失败, 回滚数据
+                rollback();
             } finally {
                 canalConnector.disconnect();
                 MDC.remove("destination");
@@ -132,272 +273,603 @@ public class AbstractCanalCoreManager {
         }
     }
 
-    private void printSummary(Message message, long batchId, int size) {
-        long memsize = 0;
-        for (Entry entry : message.getEntries()) {
-            memsize += entry.getHeader().getEventLength();
+    /**
+     * 按顺序确认已写入ES的批次，并更新本地binlog检查点
+     *
+     * @throws Exception 队首批次写入失败
+     */
+    private void ackCompleted() throws Exception {
+        if (ackWindow.ackCompleted(canalConnector) > 0 && checkpoint != null && ackWindow.getLastAckedPosition() != null) {
+            checkpoint.update(ackWindow.getLastAckedPosition());
         }
+    }
 
-        String startPosition = null;
-        String endPosition = null;
-        if (!CollectionUtils.isEmpty(message.getEntries())) {
-            startPosition = buildPositionForDump(message.getEntries().get(0));
-            endPosition = buildPositionForDump(message.getEntries().get(message.getEntries().size() - 1));
+    /**
+     * 重启后canal服务端的位点可能落后于本地检查点（ack未送达、服务端位点未刷盘），
+     * 跳过检查点及之前已写入ES的entry，越过检查点后不再比较。
+     * 位点在检查点之前、执行时间却晚于检查点，说明binlog已重新编号（RESET MASTER、切换实例），
+     * 此时检查点失效，不再跳过，避免丢弃未写入的数据；误判只会重放已写入的数据
+     *
+     * @param entries
+     * @return
+     */
+    private List<Entry> skipApplied(List<Entry> entries) {
+        if (skipUntil == null) {
+            return entries;
+        }
+        int from = 0;
+        while (from < entries.size() && positionOf(entries.get(from)).compareTo(skipUntil) <= 0) {
+            if (entries.get(from).getHeader().getExecuteTime() > skipUntil.getExecuteTime()) {
+                logger.warn("binlog位点回退到本地检查点之前，检查点失效，不再跳过, checkpoint: {}, 当前位点: {}",
+                        skipUntil, positionOf(entries.get(from)));
+                skipUntil = null;
+                return entries;
+            }
+            from++;
+        }
+        skippedEntries += from;
+        if (from < entries.size()) {
+            logger.info("越过本地检查点, checkpoint: {}, 跳过已写入的entry数: {}, 继续同步位点: {}",
+                    skipUntil, skippedEntries, positionOf(entries.get(from)));
+            skipUntil = null;
         }
+        return from == 0 ? entries : entries.subList(from, entries.size());
+    }
 
-        SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
-        logger.info(context_format, batchId, size, memsize, format.format(new Date()), startPosition,
-                endPosition);
+    /**
+     * 开启外部版本号时检查binlog文件序号是否回退（RESET MASTER、切换到序号更小的实例）
+     * 回退后版本号小于ES中已有的版本，写入会全部被当作过期跳过，索引静默停止更新；
+     * 因此记录指标并让批次失败，不ack，直到关闭外部版本号或重建索引
+     *
+     * @param entries 已跳过检查点之前的entry
+     */
+    private void checkSequence(List<Entry> entries) {
+        BinlogPosition reference = ackWindow.getLastAckedPosition() != null
+                ? ackWindow.getLastAckedPosition() : startPosition;
+        if (!externalVersion || reference == null) {
+            return;
+        }
+        BinlogPosition first = positionOf(entries.get(0));
+        if (first.getSequence() < reference.getSequence()) {
+            dumpMetricsManager.recordSequenceRegression(destination);
+            logger.error("binlog文件序号回退，外部版本号失效，停止写入, 已确认位点: {}, 当前位点: {}", reference, first);
+            throw new IllegalStateException("binlog文件序号回退: " + reference + " -> " + first);
+        }
     }
 
-    private String buildPositionForDump(Entry entry) {
-        long time = entry.getHeader().getExecuteTime();
-        Date date = new Date(time);
-        SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
-        return entry.getHeader().getLogfileName() + ":" + entry.getHeader().getLogfileOffset() + ":"
-                + entry.getHeader().getExecuteTime() + "(" + format.format(date) + ")";
+    private BinlogPosition positionOf(Entry entry) {
+        Header header = entry.getHeader();
+        return new BinlogPosition(header.getLogfileName(), header.getLogfileOffset(), header.getExecuteTime());
     }
 
     /**
-     * 数据同步顶层方法，加入事物判断。
+     * 放入预取队列，队列满时继续确认已完成的批次
      *
-     * @param entries
+     * @param prefetched
      * @throws Exception
      */
-    private void syncEntry(List<Entry> entries) throws Exception {
-        //开固定数量的线程跑
-        //1、创建固定线程池。
-        ExecutorService syncEntryThreadPool = Executors.newFixedThreadPool(5);
-        int i = 0;
-        List<Entry> subEntries = new ArrayList<>();
+    private void offerPrefetched(PrefetchedMessage prefetched) throws Exception {
+        try {
+            while (!prefetchBuffer.offer(prefetched, PREFETCH_WAIT_MS)) {
+                ackCompleted();
+            }
+        } catch (Exception e) {
+            // 未进入队列的批次不会被分派，取消后由回滚重新投递
+            prefetched.getApplied().cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * 分派线程：按拉取顺序取出预取批次，分派到写入通道
+     */
+    private void dispatch() {
+        MDC.put("destination", destination);
+        try {
+            //拉取线程退出前仍可能放入批次并等待其写入，因此要等拉取线程结束且队列取空后才退出
+            while (running || thread.isAlive() || !prefetchBuffer.isEmpty()) {
+                PrefetchedMessage prefetched;
+                try {
+                    prefetched = prefetchBuffer.poll(PREFETCH_WAIT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.error("canal分派线程被中断", e);
+                    return;
+                }
+                if (prefetched != null && !prefetched.getApplied().isDone()) {
+                    dispatchPrefetched(prefetched);
+                }
+            }
+        } finally {
+            MDC.remove("destination");
+        }
+    }
+
+    /**
+     * 分派一个预取批次，写入结果回填到批次的applied
+     *
+     * @param prefetched
+     */
+    private void dispatchPrefetched(PrefetchedMessage prefetched) {
+        try {
+            CompletableFuture<Void> applied;
+            if (spool != null) {
+                applied = spoolEntry(prefetched.getParseFutures());
+            } else if (transactionExecutor != null) {
+                applied = syncTransactions(prefetched.getParseFutures(), prefetched.getTransactionEnds());
+            } else {
+                applied = syncEntry(prefetched.getParseFutures());
+            }
+            applied.whenComplete((v, e) -> {
+                if (e != null) {
+                    prefetched.getApplied().completeExceptionally(e);
+                } else {
+                    recordLag(prefetched.getExecuteTimes());
+                    prefetched.getApplied().complete(null);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("canal批次分派异常, batchId: {}", prefetched.getBatchId(), e);
+            prefetched.getApplied().completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 统计批次内每张表最早的binlog执行时间，批次写入完成后据此计算端到端延迟
+     *
+     * @param entries
+     * @return
+     */
+    private Map<String, Long> earliestExecuteTimes(List<Entry> entries) {
+        Map<String, Long> executeTimes = new HashMap<>();
         for (Entry entry : entries) {
-            subEntries.add(entry);
-            syncEntryThreadPool.submit(new SyncDataThread(i, subEntries));
-            subEntries = new ArrayList<>();
-            i++;
+            if (entry.getEntryType() == EntryType.ROWDATA && accept(entry)) {
+                executeTimes.merge(entry.getHeader().getSchemaName() + "." + entry.getHeader().getTableName(),
+                        entry.getHeader().getExecuteTime(), Math::min);
+            }
         }
+        return executeTimes;
+    }
 
+    /**
+     * 标记批次内的事务结束位置
+     *
+     * @param entries
+     * @return
+     */
+    private BitSet transactionEnds(List<Entry> entries) {
+        BitSet transactionEnds = new BitSet(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getEntryType() == EntryType.TRANSACTIONEND) {
+                transactionEnds.set(i);
+            }
+        }
+        return transactionEnds;
+    }
+
+    private void recordLag(Map<String, Long> executeTimes) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> executeTime : executeTimes.entrySet()) {
+            dumpMetricsManager.recordLag(destination, executeTime.getKey(), now - executeTime.getValue());
+        }
+    }
+
+    /**
+     * 写入失败时回滚到最后一个已确认的批次，由canal重新投递之后的全部数据
+     * 等待在途批次异常或被中断时也要清空窗口并回滚，否则失败批次留在窗口中，之后的每次拉取都会在它上面重复失败
+     */
+    void rollback() {
         try {
-            syncEntryThreadPool.shutdown();
-            syncEntryThreadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            // 丢弃未分派的预取批次，等待在途批次结束，避免重新投递的数据与旧批次交错写入
+            prefetchBuffer.clear();
+            ackWindow.awaitAll(stopDeadline);
         } catch (InterruptedException e) {
-            logger.error("线程池超时无法释放！", e);
-            throw new Exception(e);
+            Thread.currentThread().interrupt();
+            logger.error("canal回滚等待被中断", e);
+        } catch (Exception e) {
+            logger.error("canal回滚等待在途批次异常", e);
+        } finally {
+            ackWindow.ackSucceededAndClear(canalConnector);
+            syncCheckpoint();
+            try {
+                canalConnector.rollback();
+                logger.warn("canal回滚到最后确认的批次，等待重新投递");
+            } catch (Exception e) {
+                logger.error("canal回滚异常", e);
+            }
         }
+        if (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(rollbackBackoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("canal回滚等待被中断", e);
+            }
+        }
+    }
 
+    /**
+     * 回滚前记录最后确认的位点，失败只记录日志，不影响回滚
+     */
+    private void syncCheckpoint() {
+        if (checkpoint == null || ackWindow.getLastAckedPosition() == null) {
+            return;
+        }
+        try {
+            checkpoint.update(ackWindow.getLastAckedPosition());
+            checkpoint.sync();
+        } catch (Exception e) {
+            logger.error("canal检查点落盘异常", e);
+        }
+    }
+
+    private long printSummary(Message message, long batchId, int size) {
+        long memsize = 0;
+        for (Entry entry : message.getEntries()) {
+            memsize += entry.getHeader().getEventLength();
+        }
+        binlogEventLogManager.batch(destination, batchId, message.getEntries().get(0),
+                message.getEntries().get(size - 1), size, memsize);
+        return memsize;
     }
 
     /**
-     * 解析mysql的binlog方法，返回key列名和值value
+     * 提交到常驻的entry线程池并行解析binlog，配置了transform线程池时解析完成后接着提交转换，
+     * 两个阶段各自的有界队列满时按拒绝策略反压
      *
-     * @param columns
-     * @return
+     * @param entries
+     * @return 与entries顺序一致的解析结果
      */
-    private Map analysisColumn(List<Column> columns) {
-        Map colMap = Collections.synchronizedMap(new HashMap());
-        boolean errorLog = false;
+    private List<Future<List<DumpRow>>> parseEntry(List<Entry> entries) {
+        ThreadPoolExecutor syncEntryThreadPool = dumpExecutorManager.getEntryExecutor();
+        ThreadPoolExecutor transformThreadPool = dumpExecutorManager.getTransformExecutor();
+        List<Future<List<DumpRow>>> parseFutures = new ArrayList<>(entries.size());
+        int filtered = 0;
+        for (Entry entry : entries) {
+            if (entry.getEntryType() == EntryType.ROWDATA && !accept(entry)) {
+                // 按entry头部过滤，不需要同步的表不解析RowChange，占位保持与entries下标一致
+                parseFutures.add(CompletableFuture.completedFuture(Collections.emptyList()));
+                filtered++;
+                continue;
+            }
+            SyncDataThread task = new SyncDataThread(entry);
+            if (transformThreadPool == null || entry.getEntryType() != EntryType.ROWDATA) {
+                parseFutures.add(syncEntryThreadPool.submit(task));
+            } else {
+                parseFutures.add(CompletableFuture.supplyAsync(task::parse, syncEntryThreadPool)
+                        .thenApplyAsync(SyncDataThread::transform, transformThreadPool));
+            }
+        }
+        if (filtered > 0) {
+            dumpMetricsManager.recordFiltered(destination, filtered);
+        }
+        return parseFutures;
+    }
 
-        //根据mysql的主键字段名升序排列
-        Map<String, String> keyMap = new TreeMap<String, String>(
-                Comparator.naturalOrder());
+    private boolean accept(Entry entry) {
+        return entryFilter == null || entryFilter.accept(entry.getHeader().getSchemaName(), entry.getHeader().getTableName());
+    }
 
-        for (Column column : columns) {
-            if (column.getIsKey()) {
-                keyMap.put(column.getName(), column.getValue());
-                colMap.put(column.getName(), column.getValue());
+    /**
+     * 数据同步顶层方法，加入事物判断。
+     * 按顺序等待解析结果并分派到写入通道，返回的future在本批次全部写入ES后完成。
+     *
+     * @param parseFutures
+     * @return
+     * @throws Exception
+     */
+    private CompletableFuture<Void> syncEntry(List<Future<List<DumpRow>>> parseFutures) throws Exception {
+        //1、按binlog顺序将每行分派到es_key所属通道，同一文档的变更在同一通道内顺序写入
+        List<CompletableFuture<Void>> applyFutures = new ArrayList<>();
+        for (Future<List<DumpRow>> parseFuture : parseFutures) {
+            for (DumpRow row : waitFor(parseFuture)) {
+                int lane = dumpLaneScheduler.laneOf(row.getIndex(), row.getEsKey());
+                applyFutures.add(dumpLaneScheduler.submit(lane, new SyncRowDataThread(row, lane)));
             }
-            if (EsConstant.TIMESTAMP.equals(column.getMysqlType()) || EsConstant.DATETIME.equals(column.getMysqlType())) {
-                if (StringUtils.isNotBlank(column.getValue())) {
-                    try {
-                        synchronized (sdf) {
-                            //时间戳单独处理存入ES
-                            colMap.put(column.getName(), sdf.parse(column.getValue()));
-                        }
-                    } catch (Exception e) {
-                        logger.error("数据库timestamp / datetime字段映射异常:key: {},value: {} ", column.getName(), column.getValue(), e);
-                        errorLog = true;
-                    }
-                }
-            } else if (EsConstant.DATE.equals(column.getMysqlType())) {
-                //一定要在此处加判断，如果为空，则不走下面的else分支，不组装date字段，否则es报错。
-                if (StringUtils.isNotBlank(column.getValue())) {
-                    try {
-                        synchronized (sdfDate) {
-                            //时间戳单独处理存入ES
-                            colMap.put(column.getName(), sdfDate.parse(column.getValue()));
-                        }
-                    } catch (Exception e) {
-                        logger.error("数据库date字段映射异常: key: {},value: {}", column.getName(), column.getValue(), e);
-                        errorLog = true;
-                    }
-                }
-            } else if (EsConstant.TIME.equals(column.getMysqlType())) {
-                //一定要在此处加判断，如果为空，则不走下面的else分支，不组装time字段，否则es报错。
-                if (StringUtils.isNotBlank(column.getValue())) {
-                    try {
-                        synchronized (sdfTime) {
-                            //时间戳单独处理存入ES
-                            colMap.put(column.getName(), sdfTime.parse(column.getValue()));
-                        }
-                    } catch (Exception e) {
-                        logger.error("数据库time字段映射异常: key: {},value: {}", column.getName(), column.getValue(), e);
-                        errorLog = true;
-                    }
+        }
+
+        //2、各通道提交剩余的批量缓冲（配置合并窗口时可能延后提交），全部完成即本批次已写入ES
+        applyFutures.add(elasticSearchBulkManager.flushAllLanes(destination));
+        return CompletableFuture.allOf(applyFutures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 按事务写入时的同步方法：按binlog顺序把整批行变更按事务边界组装为批量单元，
+     * 小事务合并、超大事务拆分，依次提交到destination的事务写入线程，
+     * 返回的future在本批次全部单元写入ES后完成
+     *
+     * @param parseFutures
+     * @param transactionEnds
+     * @return
+     * @throws Exception
+     */
+    private CompletableFuture<Void> syncTransactions(List<Future<List<DumpRow>>> parseFutures, BitSet transactionEnds)
+            throws Exception {
+        TransactionBulkAssembler assembler = new TransactionBulkAssembler(elasticSearchBulkManager.getBulkActions(),
+                elasticSearchBulkManager.getBulkSizeBytes());
+        for (int i = 0; i < parseFutures.size(); i++) {
+            for (DumpRow row : waitFor(parseFutures.get(i))) {
+                DocWriteRequest request = buildRequest(row);
+                Map partialDoc = partialDocOf(row, request);
+                if (partialDoc == null) {
+                    assembler.add(request, null, row.getPosition());
+                } else if (!partialDoc.isEmpty()) {
+                    assembler.add(buildPartialRequest(row, partialDoc), request, row.getPosition());
                 }
-            } else if (EsConstant.BLOB.equals(column.getMysqlType())) {
-                ByteString bs = column.getValueBytes();
-                try {
-                    String blobVal = CharSetUtil.bytesToString(bs.toByteArray(), Charsets.ISO_8859_1.name(), Charsets.UTF_8.name());
-                    colMap.put(column.getName(), blobVal);
-                } catch (CharacterCodingException e) {
-                    logger.error("数据库blob字段解析异常： {},value: {} ", column.getName(), column.getValue(), e);
-                    errorLog = true;
+            }
+            if (transactionEnds.get(i)) {
+                assembler.endTransaction();
+            }
+        }
+        List<List<BufferedWrite>> units = assembler.finish();
+        dumpMetricsManager.recordTransactionBatch(destination, assembler.getTransactions(),
+                assembler.getSplitTransactions(), units.size());
+        List<CompletableFuture<Void>> applyFutures = new ArrayList<>(units.size());
+        for (List<BufferedWrite> unit : units) {
+            applyFutures.add(CompletableFuture.runAsync(() -> elasticSearchBulkManager.executeUnit(unit), transactionExecutor));
+        }
+        return CompletableFuture.allOf(applyFutures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 启用spool时的同步方法：按binlog顺序将整批写入请求追加到spool并落盘，
+     * 返回即可ack，由spool排空线程写入ES
+     *
+     * @param parseFutures
+     * @return
+     * @throws Exception
+     */
+    private CompletableFuture<Void> spoolEntry(List<Future<List<DumpRow>>> parseFutures) throws Exception {
+        for (Future<List<DumpRow>> parseFuture : parseFutures) {
+            for (DumpRow row : waitFor(parseFuture)) {
+                DocWriteRequest request = buildRequest(row);
+                Map partialDoc = partialDocOf(row, request);
+                if (partialDoc == null) {
+                    spool.append(SpoolRecord.of(request, row.getPosition()));
+                } else if (!partialDoc.isEmpty()) {
+                    spool.append(SpoolRecord.of(buildPartialRequest(row, partialDoc), request, row.getPosition()));
                 }
-            } else {
-                colMap.put(column.getName(), column.getValue());
             }
         }
-        colMap.put(EsConstant.ES_KEY, elasticSearchDumpManager.esKeyString(keyMap));
-        if (errorLog) {
-            logger.error("the PK value in ES is: {}", colMap.get(EsConstant.ES_KEY));
+        spool.commit();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 组装行变更对应的ES写入请求
+     *
+     * @param row
+     * @return
+     */
+    private DocWriteRequest buildRequest(DumpRow row) {
+        if (row.getEventType() == EventType.DELETE) {
+            DeleteRequest delete = elasticSearchDumpManager.buildDeleteRequest(row.getColMap(), row.getIndex());
+            return externalVersion ? delete.version(row.getVersion()).versionType(VersionType.EXTERNAL_GTE) : delete;
+        }
+        if (externalVersion) {
+            //按binlog位点做外部版本，旧位点的写入被ES拒绝，重放与乱序写入不会覆盖新数据
+            return serviceImportManager.buildVersionedWriteRequest(row.getColMap(), row.getIndex(), row.getVersion());
+        }
+        return serviceImportManager.buildWriteRequest(row.getColMap(), row.getIndex());
+    }
+
+    /**
+     * UPDATE事件中可只写入的变更列，需在buildRequest之后调用，此时行数据已完成业务转换
+     * 返回null时按整行写入：外部版本号写入为整体覆盖、主键变更、全部列都有变更、索引有派生字段；
+     * 返回空map时变更的列均被过滤或不在文档中，ES中的文档不变，该行无需写入
+     *
+     * @param row
+     * @param full buildRequest返回的整行请求
+     * @return
+     */
+    Map partialDocOf(DumpRow row, DocWriteRequest full) {
+        if (!partialUpdate || externalVersion || row.getEventType() != EventType.UPDATE
+                || row.getUpdatedColumns() == null || !(full instanceof UpdateRequest)
+                || !serviceImportManager.supportsPartialUpdate(row.getIndex())) {
+            return null;
+        }
+        Map colMap = row.getColMap();
+        Map doc = new HashMap();
+        for (String name : row.getUpdatedColumns()) {
+            if (colMap.containsKey(name)) {
+                doc.put(name, colMap.get(name));
+            }
+        }
+        if (!doc.isEmpty() && doc.size() == colMap.size()) {
+            return null;
         }
+        return doc;
+    }
 
-        return colMap;
+    /**
+     * 组装只含变更列的部分更新请求，整行请求作为文档不存在时的fallback一并提交
+     *
+     * @param row
+     * @param doc partialDocOf返回的非空变更列
+     * @return
+     */
+    private DocWriteRequest buildPartialRequest(DumpRow row, Map doc) {
+        return elasticSearchDumpManager.buildPartialUpdateRequest(doc, row.getIndex(), row.getEsKey());
     }
 
+    /**
+     * 等待任务完成，任务异常则向上抛出
+     *
+     * @param future
+     * @return
+     * @throws Exception
+     */
+    private <T> T waitFor(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("等待同步任务完成时被中断！", e);
+            throw new Exception(e);
+        } catch (ExecutionException e) {
+            throw new Exception(e.getCause());
+        }
+    }
 
-    private class SyncDataThread implements Callable<Integer> {
-        private int threadId;
-        private List<Entry> entryList;
+    /**
+     * 解析、转换一个entry，分为两个阶段：
+     * parse在entry线程池上执行RowChange.parseFrom并处理事务头、DDL；
+     * transform逐行转换字段为DumpRow，配置了transform线程池时在其上执行，否则由解析线程接着执行
+     */
+    private class SyncDataThread implements Callable<List<DumpRow>> {
+        private final Entry entry;
+        private RowChange rowChange;
 
-        public SyncDataThread(int id, List<Entry> entryList) {
-            this.threadId = id;
-            this.entryList = entryList;
+        public SyncDataThread(Entry entry) {
+            this.entry = entry;
         }
 
         @Override
-        public Integer call() throws Exception {
-            for (Entry entry : entryList) {
-
-                long executeTime = entry.getHeader().getExecuteTime();
-                long delayTime = System.currentTimeMillis() - executeTime;
-
-                //判断mysql事物开始和事物结束
-                if (entry.getEntryType() == EntryType.TRANSACTIONBEGIN || entry.getEntryType() == EntryType.TRANSACTIONEND) {
-                    if (entry.getEntryType() == EntryType.TRANSACTIONBEGIN) {
-                        TransactionBegin begin = null;
-                        try {
-                            begin = TransactionBegin.parseFrom(entry.getStoreValue());
-                        } catch (InvalidProtocolBufferException e) {
-                            throw new RuntimeException("parse event has an error , data:" + entry.toString(), e);
-                        }
-                        // 打印事务头信息，执行的线程id，事务耗时
-                        logger.info(transaction_format,
-                                entry.getHeader().getLogfileName(),
-                                String.valueOf(entry.getHeader().getLogfileOffset()),
-                                String.valueOf(entry.getHeader().getExecuteTime()), String.valueOf(delayTime));
-                        logger.info(" BEGIN ----> Thread id: {}", begin.getThreadId());
-                    } else {
-                        TransactionEnd end;
-                        try {
-                            end = TransactionEnd.parseFrom(entry.getStoreValue());
-                        } catch (InvalidProtocolBufferException e) {
-                            throw new RuntimeException("parse event has an error , data:" + entry.toString(), e);
-                        }
-                        // 打印事务提交信息，事务id
-                        logger.info("----------------\n");
-                        logger.info(" END ----> transaction id: {}", end.getTransactionId());
-                        logger.info(transaction_format,
-                                entry.getHeader().getLogfileName(),
-                                String.valueOf(entry.getHeader().getLogfileOffset()),
-                                String.valueOf(entry.getHeader().getExecuteTime()), String.valueOf(delayTime));
-                    }
-
-                }
+        public List<DumpRow> call() throws Exception {
+            return parse().transform();
+        }
 
-                //解析mysql逐行数据
-                if (entry.getEntryType() == EntryType.ROWDATA) {
-                    RowChange rowChange;
+        /**
+         * 解析阶段
+         *
+         * @return
+         */
+        public SyncDataThread parse() {
+            //判断mysql事物开始和事物结束
+            if (entry.getEntryType() == EntryType.TRANSACTIONBEGIN || entry.getEntryType() == EntryType.TRANSACTIONEND) {
+                if (entry.getEntryType() == EntryType.TRANSACTIONBEGIN) {
+                    TransactionBegin begin = null;
+                    try {
+                        begin = TransactionBegin.parseFrom(entry.getStoreValue());
+                    } catch (InvalidProtocolBufferException e) {
+                        binlogEventLogManager.parseError(destination, entry, e);
+                        throw new RuntimeException("parse event has an error , data:" + entry.toString(), e);
+                    }
+                    // 记录事务头信息，执行的线程id
+                    binlogEventLogManager.transaction(destination, entry, "BEGIN", String.valueOf(begin.getThreadId()));
+                } else {
+                    TransactionEnd end;
                     try {
-                        rowChange = RowChange.parseFrom(entry.getStoreValue());
-                    } catch (Exception e) {
+                        end = TransactionEnd.parseFrom(entry.getStoreValue());
+                    } catch (InvalidProtocolBufferException e) {
+                        binlogEventLogManager.parseError(destination, entry, e);
                         throw new RuntimeException("parse event has an error , data:" + entry.toString(), e);
                     }
+                    // 记录事务提交信息，事务id
+                    binlogEventLogManager.transaction(destination, entry, "END", end.getTransactionId());
+                }
 
-                    EventType eventType = rowChange.getEventType();
+            }
 
-                    logger.info(row_format,
-                            entry.getHeader().getLogfileName(),
-                            String.valueOf(entry.getHeader().getLogfileOffset()), entry.getHeader().getSchemaName(),
-                            entry.getHeader().getTableName(), eventType,
-                            String.valueOf(entry.getHeader().getExecuteTime()), String.valueOf(delayTime));
+            //解析mysql逐行数据
+            if (entry.getEntryType() == EntryType.ROWDATA) {
+                long parseStart = System.nanoTime();
+                try {
+                    rowChange = RowChange.parseFrom(entry.getStoreValue());
+                } catch (Exception e) {
+                    binlogEventLogManager.parseError(destination, entry, e);
+                    throw new RuntimeException("parse event has an error , data:" + entry.toString(), e);
+                }
+                dumpMetricsManager.recordStage(DumpMetricsManager.STAGE_PARSE, parseStart);
 
-                    if (eventType == EventType.QUERY || rowChange.getIsDdl()) {
-                        logger.info(" sql ----> " + rowChange.getSql() + SEP);
-                    }
+                EventType eventType = rowChange.getEventType();
+                String index = indexOf(entry);
+                binlogEventLogManager.rowChange(destination, entry, index, eventType, rowChange.getRowDatasCount());
+                if (eventType == EventType.QUERY || rowChange.getIsDdl()) {
+                    binlogEventLogManager.ddl(destination, entry, index, rowChange.getSql());
+                }
+                if (rowChange.getIsDdl()) {
+                    //表结构变更，之后的行数据按新结构重新编译转换计划；新增列先显式更新mapping，
+                    //分派线程等待本任务完成后才分派之后的行，新字段写入前mapping已就绪
+                    columnConversionPlanCache.invalidate(index);
+                    elasticSearchMappingManager.applyDdl(index, rowChange.getSql());
+                }
+            }
+            return this;
+        }
 
-                    //开启线程逐行同步数据
-                    if (rowChange.getRowDatasList().size() > 0) {
-                        ExecutorService syncRowDataThreadPool = Executors.newFixedThreadPool(5);
-                        List<RowData> rowDataList = new ArrayList<>();
-                        int i = 0;
-                        for (RowData rowData : rowChange.getRowDatasList()) {
-                            if (rowDataList.size() < 4) {
-                                rowDataList.add(rowData);
-                            } else {
-                                //第10条加入到列表，然后利用线程池，开启线程同步
-                                rowDataList.add(rowData);
-                                syncRowDataThreadPool.submit(new SyncRowDataThread(i, rowDataList, entry, eventType));
-                                //创建新List对象。用于开启新线程。
-                                rowDataList = new ArrayList<>();
-                            }
-                        }
-                        //如果rowDataList中不足10条，则需要将不足的，提交到线程执行
-                        if (rowDataList.size() < 4) {
-                            syncRowDataThreadPool.submit(new SyncRowDataThread(i, rowDataList, entry, eventType));
-                        }
-                        try {
-                            syncRowDataThreadPool.shutdown();
-                            syncRowDataThreadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-                        } catch (Exception e) {
-                            logger.error("线程池超时无法释放！", e);
-                            throw new Exception(e);
-                        }
-                    }
+        /**
+         * 转换阶段
+         *
+         * @return
+         */
+        public List<DumpRow> transform() {
+            if (rowChange == null) {
+                return Collections.emptyList();
+            }
+            //逐行转换字段，同一RowChange内各行列结构相同，只取一次转换计划；写入由调用方按es_key分派到通道
+            long transformStart = System.nanoTime();
+            EventType eventType = rowChange.getEventType();
+            String index = indexOf(entry);
+            List<DumpRow> rows = new ArrayList<>(rowChange.getRowDatasCount());
+            ColumnConversionPlan plan = null;
+            for (RowData rowData : rowChange.getRowDatasList()) {
+                List<Column> columns = eventType == EventType.DELETE
+                        ? rowData.getBeforeColumnsList() : rowData.getAfterColumnsList();
+                if (plan == null) {
+                    plan = columnConversionPlanCache.planFor(index, columns);
+                }
+                Map colMap = plan.decode(columns);
+                DumpRow row = new DumpRow(index, eventType, (String) colMap.get(EsConstant.ES_KEY), colMap);
+                row.setLogfileName(entry.getHeader().getLogfileName());
+                row.setLogfileOffset(entry.getHeader().getLogfileOffset());
+                if (partialUpdate && eventType == EventType.UPDATE) {
+                    row.setUpdatedColumns(updatedColumnsOf(columns));
                 }
+                rows.add(row);
             }
+            dumpMetricsManager.recordStage(DumpMetricsManager.STAGE_TRANSFORM, transformStart);
+            dumpMetricsManager.recordRows(destination, index, eventType.name(), rowChange.getRowDatasCount());
+            //转换完成后释放RowChange，不随结果留在预取队列中
+            rowChange = null;
+            return rows;
+        }
 
-            return threadId;
+        private String indexOf(Entry entry) {
+            return entry.getHeader().getSchemaName() + "." + entry.getHeader().getTableName();
+        }
+
+        /**
+         * 取UPDATE事件中值有变化的列名，主键有变化时返回null，按整行写入
+         *
+         * @param columns
+         * @return
+         */
+        private Set<String> updatedColumnsOf(List<Column> columns) {
+            Set<String> updated = new HashSet<>();
+            for (Column column : columns) {
+                if (!column.getUpdated()) {
+                    continue;
+                }
+                if (column.getIsKey()) {
+                    return null;
+                }
+                updated.add(column.getName());
+            }
+            return updated;
         }
 
     }
 
-    private class SyncRowDataThread implements Callable<Integer> {
-        private int threadId;
-        private List<RowData> rowDataList;
-        private Entry entry;
-        private EventType eventType;
+    private class SyncRowDataThread implements Runnable {
+        private DumpRow row;
+        private int lane;
 
-        SyncRowDataThread(int id, List<RowData> rowDataList, Entry entry, EventType eventType) {
-            this.threadId = id;
-            this.rowDataList = rowDataList;
-            this.entry = entry;
-            this.eventType = eventType;
+        SyncRowDataThread(DumpRow row, int lane) {
+            this.row = row;
+            this.lane = lane;
         }
 
         @Override
-        public Integer call() {
-            Map colMap;
-            for (RowData rowData : rowDataList) {
-                if (eventType == EventType.DELETE) {
-                    colMap = analysisColumn(rowData.getBeforeColumnsList());
-                    elasticSearchDumpManager.deleteRecordToEs(colMap, entry.getHeader().getSchemaName() + "." + entry.getHeader().getTableName());
-                } else {
-                    colMap = analysisColumn(rowData.getAfterColumnsList());
-                    serviceImportManager.getDateMap(colMap, entry.getHeader().getSchemaName() + "." + entry.getHeader().getTableName());
-                }
+        public void run() {
+            //加入通道的批量缓冲，增删按顺序混合提交
+            DocWriteRequest request = buildRequest(row);
+            Map partialDoc = partialDocOf(row, request);
+            if (partialDoc == null) {
+                elasticSearchBulkManager.add(destination, lane, request, row.getPosition());
+            } else if (!partialDoc.isEmpty()) {
+                elasticSearchBulkManager.add(destination, lane, buildPartialRequest(row, partialDoc), request, row.getPosition());
             }
-            return threadId;
         }
 
     }
@@ -413,4 +885,131 @@ public class AbstractCanalCoreManager {
     public void setServiceImportManager(ServiceImportManager serviceImportManager) {
         this.serviceImportManager = serviceImportManager;
     }
+
+    public void setDumpExecutorManager(DumpExecutorManager dumpExecutorManager) {
+        this.dumpExecutorManager = dumpExecutorManager;
+    }
+
+    public void setDumpLaneScheduler(DumpLaneScheduler dumpLaneScheduler) {
+        this.dumpLaneScheduler = dumpLaneScheduler;
+    }
+
+    public void setElasticSearchBulkManager(ElasticSearchBulkManager elasticSearchBulkManager) {
+        this.elasticSearchBulkManager = elasticSearchBulkManager;
+    }
+
+    /**
+     * 设置表、列过滤规则，需在start之前调用
+     *
+     * @param entryFilter
+     */
+    public void setEntryFilter(CanalEntryFilter entryFilter) {
+        this.entryFilter = entryFilter;
+    }
+
+    /**
+     * 设置blob列解码配置，需在start之前调用
+     *
+     * @param blobColumnConfig
+     */
+    public void setBlobColumnConfig(BlobColumnConfig blobColumnConfig) {
+        this.blobColumnConfig = blobColumnConfig;
+    }
+
+    public void setElasticSearchMappingManager(ElasticSearchMappingManager elasticSearchMappingManager) {
+        this.elasticSearchMappingManager = elasticSearchMappingManager;
+    }
+
+    /**
+     * 设置未确认批次的上限
+     *
+     * @param maxInFlightBatches
+     */
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.ackWindow = new CanalAckWindow(maxInFlightBatches);
+    }
+
+    /**
+     * 确认窗口，只供同包测试构造在途批次
+     *
+     * @return
+     */
+    CanalAckWindow getAckWindow() {
+        return ackWindow;
+    }
+
+    public void setRollbackBackoffMs(long rollbackBackoffMs) {
+        this.rollbackBackoffMs = rollbackBackoffMs;
+    }
+
+    public void setBatchSizeController(CanalBatchSizeController batchSizeController) {
+        this.batchSizeController = batchSizeController;
+    }
+
+    /**
+     * 暴露预取队列与确认窗口的占用率，需在设置两者之后调用
+     *
+     * @param registry
+     */
+    public void bindTo(MeterRegistry registry) {
+        prefetchBuffer.bindTo(registry, destination);
+        ackWindow.bindTo(registry, destination);
+    }
+
+    public void setPrefetchBuffer(CanalPrefetchBuffer prefetchBuffer) {
+        this.prefetchBuffer = prefetchBuffer;
+    }
+
+    public void setDumpMetricsManager(DumpMetricsManager dumpMetricsManager) {
+        this.dumpMetricsManager = dumpMetricsManager;
+    }
+
+    public void setBinlogEventLogManager(BinlogEventLogManager binlogEventLogManager) {
+        this.binlogEventLogManager = binlogEventLogManager;
+    }
+
+    /**
+     * 设置本地binlog检查点，需在start之前调用，启动后跳过检查点之前已写入的entry
+     *
+     * @param checkpoint
+     */
+    public void setCheckpoint(CanalPositionCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * 设置是否以binlog位点作为ES外部版本号写入
+     *
+     * @param externalVersion
+     */
+    public void setExternalVersion(boolean externalVersion) {
+        this.externalVersion = externalVersion;
+    }
+
+    /**
+     * 设置UPDATE事件是否只写入变更的列，以外部版本号写入时不生效
+     *
+     * @param partialUpdate
+     */
+    public void setPartialUpdate(boolean partialUpdate) {
+        this.partialUpdate = partialUpdate;
+    }
+
+    /**
+     * 设置写入方式，需在start之前调用
+     *
+     * @param applyMode
+     */
+    public void setApplyMode(DumpApplyMode applyMode) {
+        this.applyMode = applyMode;
+    }
+
+    /**
+     * 设置本地spool，设置后批次落盘即ack，由spool排空线程写入ES
+     *
+     * @param spool
+     */
+    public void setSpool(DumpSpool spool) {
+        this.spool = spool;
+    }
 }
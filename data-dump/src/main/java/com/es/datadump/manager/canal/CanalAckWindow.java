@@ -0,0 +1,213 @@
+package com.es.datadump.manager.canal;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import com.es.datadump.model.BinlogPosition;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 已拉取、未确认的canal批次窗口
+ * 批次按拉取顺序排队，只有队首批次的数据全部写入ES后才ack，保证按顺序确认；
+ * 窗口限制未确认批次的数量，上一批写入ES的同时可以继续拉取、分派下一批。
+ * 只由canal消费线程访问，无需加锁；监控线程只读取在途批次数。
+ *
+ * @author yiheni
+ */
+public class CanalAckWindow {
+
+    private final int maxInFlight;
+    private final Deque<InFlightBatch> batches;
+    private long lastApplyMillis;
+    private BinlogPosition lastAckedPosition;
+
+    public CanalAckWindow(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.batches = new ArrayDeque<>(this.maxInFlight);
+    }
+
+    /**
+     * 登记一个已分派的批次
+     *
+     * @param batchId
+     * @param applied  批次全部写入ES后完成，写入失败则异常完成
+     * @param position 批次最后一个entry的binlog位点，空批次为null
+     */
+    public void add(long batchId, CompletableFuture<Void> applied, BinlogPosition position) {
+        batches.addLast(new InFlightBatch(batchId, applied, position, System.currentTimeMillis()));
+    }
+
+    public boolean isFull() {
+        return batches.size() >= maxInFlight;
+    }
+
+    public int size() {
+        return batches.size();
+    }
+
+    /**
+     * 在途批次数占上限的比例，由监控线程读取，只作观测用
+     *
+     * @return
+     */
+    public double getOccupancy() {
+        return Math.min(1D, (double) batches.size() / maxInFlight);
+    }
+
+    /**
+     * 暴露确认窗口占用率，作为链路的ack阶段
+     *
+     * @param registry
+     * @param destination
+     */
+    public void bindTo(MeterRegistry registry, String destination) {
+        Gauge.builder(DumpMetricsManager.PIPELINE_OCCUPANCY, this, CanalAckWindow::getOccupancy)
+                .tag("stage", "ack")
+                .tag("destination", destination)
+                .description("链路阶段的队列占用率，0到1")
+                .register(registry);
+    }
+
+    /**
+     * 最近一次ack的批次从分派到确认的耗时
+     *
+     * @return
+     */
+    public long getLastApplyMillis() {
+        return lastApplyMillis;
+    }
+
+    /**
+     * 最近一次ack的非空批次的最后位点，该位点之前的数据均已写入ES
+     *
+     * @return
+     */
+    public BinlogPosition getLastAckedPosition() {
+        return lastAckedPosition;
+    }
+
+    /**
+     * 按顺序ack队首已成功写入的批次，遇到未完成的批次即停止
+     *
+     * @param connector
+     * @return 本次ack的批次数
+     * @throws Exception 队首批次写入失败
+     */
+    public int ackCompleted(CanalConnector connector) throws Exception {
+        int acked = 0;
+        while (!batches.isEmpty() && batches.peekFirst().applied.isDone()) {
+            InFlightBatch head = batches.peekFirst();
+            if (head.applied.isCompletedExceptionally()) {
+                throw new Exception("批次写入ES失败, batchId: " + head.batchId, causeOf(head.applied));
+            }
+            connector.ack(head.batchId);
+            batches.pollFirst();
+            if (head.position != null) {
+                lastAckedPosition = head.position;
+            }
+            lastApplyMillis = System.currentTimeMillis() - head.dispatchTime;
+            acked++;
+        }
+        return acked;
+    }
+
+    /**
+     * 等待队首批次结束，成功或失败均返回
+     *
+     * @param timeoutMs 最长等待时间
+     * @throws InterruptedException
+     */
+    public void awaitHead(long timeoutMs) throws InterruptedException {
+        if (!batches.isEmpty()) {
+            await(batches.peekFirst().applied, System.currentTimeMillis() + timeoutMs);
+        }
+    }
+
+    /**
+     * 等待窗口内全部批次结束，成功或失败均返回
+     *
+     * @throws InterruptedException
+     */
+    public void awaitAll() throws InterruptedException {
+        awaitAll(Long.MAX_VALUE);
+    }
+
+    /**
+     * 在截止时间前等待窗口内全部批次结束，成功或失败均算结束
+     *
+     * @param deadline 截止时间（System.currentTimeMillis）
+     * @return 是否全部结束
+     * @throws InterruptedException
+     */
+    public boolean awaitAll(long deadline) throws InterruptedException {
+        for (InFlightBatch batch : batches) {
+            if (!await(batch.applied, deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 回滚前调用：ack失败批次之前已成功的批次，丢弃其余批次，由canal重新投递
+     *
+     * @param connector
+     */
+    public void ackSucceededAndClear(CanalConnector connector) {
+        try {
+            ackCompleted(connector);
+        } catch (Exception ignore) {
+            //失败批次及之后的批次交由rollback重新投递
+        } finally {
+            batches.clear();
+        }
+    }
+
+    private boolean await(CompletableFuture<Void> future, long deadline) throws InterruptedException {
+        try {
+            if (deadline == Long.MAX_VALUE) {
+                future.get();
+            } else {
+                future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        } catch (ExecutionException | CancellationException ignore) {
+            //失败或回滚时取消的批次均算结束，由ackCompleted处理
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private Throwable causeOf(CompletableFuture<Void> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    private static class InFlightBatch {
+        private final long batchId;
+        private final CompletableFuture<Void> applied;
+        private final BinlogPosition position;
+        private final long dispatchTime;
+
+        InFlightBatch(long batchId, CompletableFuture<Void> applied, BinlogPosition position, long dispatchTime) {
+            this.batchId = batchId;
+            this.applied = applied;
+            this.position = position;
+            this.dispatchTime = dispatchTime;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.es.datadump.manager.canal;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * canal拉取批次大小的自适应控制
+ * 追数据时（延迟高且批次拉满）成倍放大批次以提高吞吐；
+ * 写入耗时或批次内存超过上限时减半，避免单批次过大拖慢确认、撑大内存；
+ * 延迟恢复正常或空闲时逐步收缩，回到低延迟的小批次。
+ * 只由canal消费线程访问，当前值对监控线程可见。
+ *
+ * @author yiheni
+ */
+public class CanalBatchSizeController {
+
+    private final static Logger logger = LoggerFactory.getLogger(CanalBatchSizeController.class);
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long lagThresholdMs;
+    private final long maxApplyMs;
+    private final long maxMemBytes;
+
+    private volatile int batchSize;
+
+    public CanalBatchSizeController(int initBatchSize, int minBatchSize, int maxBatchSize,
+                                    long lagThresholdMs, long maxApplyMs, long maxMemBytes) {
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.lagThresholdMs = lagThresholdMs;
+        this.maxApplyMs = maxApplyMs;
+        this.maxMemBytes = maxMemBytes;
+        this.batchSize = bound(initBatchSize);
+    }
+
+    /**
+     * 下一次拉取的批次大小
+     *
+     * @return
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 根据本次拉取的结果调整批次大小
+     *
+     * @param fetched   本次拉取的entry数
+     * @param lagMs     批次最后一条binlog的延迟
+     * @param memSize   批次binlog字节数
+     * @param applyMs   最近一次确认批次的写入耗时
+     */
+    public void onFetched(int fetched, long lagMs, long memSize, long applyMs) {
+        int current = batchSize;
+        int next = current;
+        if (memSize > maxMemBytes || applyMs > maxApplyMs) {
+            next = bound(current / 2);
+        } else if (lagMs > lagThresholdMs && fetched >= current) {
+            next = bound(current * 2);
+        } else if (lagMs <= lagThresholdMs && fetched < current / 2) {
+            next = bound(current - Math.max(1, current / 4));
+        }
+        if (next != current) {
+            batchSize = next;
+            logger.debug("canal批次大小调整: {} -> {}, lag: {}ms, memSize: {}, applyMs: {}",
+                    current, next, lagMs, memSize, applyMs);
+        }
+    }
+
+    /**
+     * 空批次，说明已追平，收缩到最小批次
+     */
+    public void onIdle() {
+        batchSize = minBatchSize;
+    }
+
+    /**
+     * 暴露当前批次大小
+     *
+     * @param registry
+     * @param destination
+     */
+    public void bindTo(MeterRegistry registry, String destination) {
+        Gauge.builder("dump.canal.batch.size", this, CanalBatchSizeController::getBatchSize)
+                .tag("destination", destination)
+                .description("canal下一次拉取的批次大小")
+                .register(registry);
+    }
+
+    private int bound(int size) {
+        return Math.min(maxBatchSize, Math.max(minBatchSize, size));
+    }
+}
@@ -0,0 +1,156 @@
+package com.es.datadump.manager.canal;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.es.datadump.converter.column.BlobColumnConfig;
+import com.es.datadump.enums.DumpApplyMode;
+import com.es.datadump.manager.ServiceImportManager;
+import com.es.datadump.manager.elasticsearch.ElasticSearchBulkManager;
+import com.es.datadump.manager.elasticsearch.ElasticSearchMappingManager;
+import com.es.datadump.manager.executor.DumpExecutorManager;
+import com.es.datadump.manager.executor.DumpLaneScheduler;
+import com.es.datadump.manager.log.BinlogEventLogManager;
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import com.es.stone.manager.ElasticSearchDumpManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * 按配置组装单个destination的消费者
+ * 批次大小控制、预取队列与确认窗口各自独立，解析线程池、写入通道与批量缓冲共享；
+ * 检查点与spool由调用方按需设置。
+ *
+ * @author yiheni
+ */
+public class CanalCoreManagerFactory {
+
+    private final static Logger logger = LoggerFactory.getLogger(CanalCoreManagerFactory.class);
+
+    @Autowired
+    private ElasticSearchDumpManager elasticSearchDumpManager;
+
+    @Autowired
+    private ServiceImportManager serviceImportManager;
+
+    @Autowired
+    private DumpExecutorManager dumpExecutorManager;
+
+    @Autowired
+    private DumpLaneScheduler dumpLaneScheduler;
+
+    @Autowired
+    private ElasticSearchBulkManager elasticSearchBulkManager;
+
+    @Autowired
+    private ElasticSearchMappingManager elasticSearchMappingManager;
+
+    @Autowired
+    private CanalEntryFilter canalEntryFilter;
+
+    @Autowired
+    private BlobColumnConfig blobColumnConfig;
+
+    @Autowired
+    private DumpMetricsManager dumpMetricsManager;
+
+    @Autowired
+    private BinlogEventLogManager binlogEventLogManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dump.ack.max-in-flight:4}")
+    private int maxInFlightBatches;
+
+    @Value("${dump.ack.rollback-backoff-ms:1000}")
+    private long rollbackBackoffMs;
+
+    @Value("${dump.fetch.batch-size:128}")
+    private int batchSize;
+
+    @Value("${dump.fetch.min-batch-size:16}")
+    private int minBatchSize;
+
+    @Value("${dump.fetch.max-batch-size:4096}")
+    private int maxBatchSize;
+
+    @Value("${dump.fetch.lag-threshold-ms:1000}")
+    private long lagThresholdMs;
+
+    @Value("${dump.fetch.max-apply-ms:2000}")
+    private long maxApplyMs;
+
+    @Value("${dump.fetch.max-mem-kb:16384}")
+    private long maxMemKb;
+
+    @Value("${dump.prefetch.depth:2}")
+    private int prefetchDepth;
+
+    @Value("${dump.prefetch.max-mem-kb:65536}")
+    private long prefetchMaxMemKb;
+
+    @Value("${dump.apply.mode:LANE}")
+    private String applyMode;
+
+    @Value("${dump.bulk.external-version:false}")
+    private boolean externalVersion;
+
+    @Value("${dump.bulk.partial-update:false}")
+    private boolean partialUpdate;
+
+    private DumpApplyMode mode;
+
+    /**
+     * 解析配置，由spring init-method调用
+     */
+    public void init() {
+        mode = DumpApplyMode.getByDesc(applyMode);
+        if (mode == null) {
+            logger.warn("未知的写入方式：{}，使用LANE", applyMode);
+            mode = DumpApplyMode.LANE;
+        }
+        if (partialUpdate && externalVersion) {
+            logger.warn("外部版本号写入为整体覆盖，只写入变更列不生效");
+        }
+    }
+
+    /**
+     * 创建destination的消费者，尚未启动
+     *
+     * @param destination
+     * @param canalConnector
+     * @return
+     */
+    public CanalCoreManager create(String destination, CanalConnector canalConnector) {
+        CanalCoreManager canalManager = new CanalCoreManager(destination);
+        canalManager.setCanalConnector(canalConnector);
+        canalManager.setElasticSearchDumpManager(elasticSearchDumpManager);
+        canalManager.setServiceImportManager(serviceImportManager);
+        canalManager.setDumpExecutorManager(dumpExecutorManager);
+        canalManager.setDumpLaneScheduler(dumpLaneScheduler);
+        canalManager.setElasticSearchBulkManager(elasticSearchBulkManager);
+        canalManager.setElasticSearchMappingManager(elasticSearchMappingManager);
+        canalManager.setEntryFilter(canalEntryFilter);
+        canalManager.setBlobColumnConfig(blobColumnConfig);
+        canalManager.setDumpMetricsManager(dumpMetricsManager);
+        canalManager.setBinlogEventLogManager(binlogEventLogManager);
+        canalManager.setExternalVersion(externalVersion);
+        canalManager.setPartialUpdate(partialUpdate);
+        canalManager.setApplyMode(mode);
+        canalManager.setMaxInFlightBatches(maxInFlightBatches);
+        canalManager.setRollbackBackoffMs(rollbackBackoffMs);
+        CanalBatchSizeController batchSizeController = new CanalBatchSizeController(batchSize, minBatchSize, maxBatchSize,
+                lagThresholdMs, maxApplyMs, maxMemKb * 1024);
+        batchSizeController.bindTo(meterRegistry, destination);
+        canalManager.setBatchSizeController(batchSizeController);
+        canalManager.setPrefetchBuffer(new CanalPrefetchBuffer(prefetchDepth, prefetchMaxMemKb * 1024));
+        canalManager.bindTo(meterRegistry);
+        return canalManager;
+    }
+
+    public DumpApplyMode getApplyMode() {
+        return mode;
+    }
+}
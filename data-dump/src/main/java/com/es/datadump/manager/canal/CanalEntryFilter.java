@@ -0,0 +1,138 @@
+package com.es.datadump.manager.canal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * 表、列过滤规则
+ * 表规则为canal格式的正则（schema\\.table，逗号分隔）：白名单同时作为canal订阅过滤条件下推到服务端，
+ * 黑名单在客户端按entry头部判断，命中的entry不再解析RowChange；
+ * 列规则按表配置（schema.table:列1|列2，逗号分隔），编译列转换计划时决定哪些列不解码。
+ * 判断结果按表缓存，热路径上只做一次map查找。
+ *
+ * @author yiheni
+ */
+public class CanalEntryFilter {
+
+    private final static Logger logger = LoggerFactory.getLogger(CanalEntryFilter.class);
+
+    @Value("${dump.filter.include-tables:}")
+    private String includeTables;
+
+    @Value("${dump.filter.exclude-tables:}")
+    private String excludeTables;
+
+    @Value("${dump.filter.include-columns:}")
+    private String includeColumns;
+
+    @Value("${dump.filter.exclude-columns:}")
+    private String excludeColumns;
+
+    private List<Pattern> includePatterns;
+    private List<Pattern> excludePatterns;
+    private final Map<String, Set<String>> includeColumnMap = new HashMap<>();
+    private final Map<String, Set<String>> excludeColumnMap = new HashMap<>();
+    private final Map<String, Boolean> acceptedTables = new ConcurrentHashMap<>();
+
+    /**
+     * 解析配置，由spring init-method调用
+     */
+    public void init() {
+        includePatterns = compile(includeTables);
+        excludePatterns = compile(excludeTables);
+        parseColumns(includeColumns, includeColumnMap);
+        parseColumns(excludeColumns, excludeColumnMap);
+        logger.info("表列过滤初始化完成, includeTables: {}, excludeTables: {}, includeColumns: {}, excludeColumns: {}",
+                includeTables, excludeTables, includeColumnMap, excludeColumnMap);
+    }
+
+    /**
+     * canal订阅过滤条件，未配置白名单时返回空，沿用服务端instance的配置
+     *
+     * @return
+     */
+    public String getSubscribeFilter() {
+        return StringUtils.trimToEmpty(includeTables);
+    }
+
+    /**
+     * 判断表是否需要同步
+     *
+     * @param schema
+     * @param table
+     * @return
+     */
+    public boolean accept(String schema, String table) {
+        return acceptedTables.computeIfAbsent(schema + "." + table, this::match);
+    }
+
+    /**
+     * 表的列过滤条件，未配置列规则时返回null，全部列都解码
+     * 主键列总是保留，由调用方处理
+     *
+     * @param table schema.table
+     * @return
+     */
+    public Predicate<String> columnFilterOf(String table) {
+        Set<String> includes = includeColumnMap.get(table.toLowerCase(Locale.ROOT));
+        Set<String> excludes = excludeColumnMap.get(table.toLowerCase(Locale.ROOT));
+        if (includes == null && excludes == null) {
+            return null;
+        }
+        return column -> {
+            String name = column.toLowerCase(Locale.ROOT);
+            return (includes == null || includes.contains(name)) && (excludes == null || !excludes.contains(name));
+        };
+    }
+
+    private boolean match(String table) {
+        if (!includePatterns.isEmpty() && includePatterns.stream().noneMatch(p -> p.matcher(table).matches())) {
+            return false;
+        }
+        return excludePatterns.stream().noneMatch(p -> p.matcher(table).matches());
+    }
+
+    private List<Pattern> compile(String tables) {
+        if (StringUtils.isBlank(tables)) {
+            return Collections.emptyList();
+        }
+        List<Pattern> patterns = new ArrayList<>();
+        for (String table : StringUtils.split(tables, ',')) {
+            if (StringUtils.isNotBlank(table)) {
+                patterns.add(Pattern.compile(table.trim(), Pattern.CASE_INSENSITIVE));
+            }
+        }
+        return patterns;
+    }
+
+    private void parseColumns(String config, Map<String, Set<String>> columnMap) {
+        if (StringUtils.isBlank(config)) {
+            return;
+        }
+        for (String tableConfig : StringUtils.split(config, ',')) {
+            String[] pair = StringUtils.split(tableConfig.trim(), ':');
+            if (pair.length != 2) {
+                logger.warn("列过滤配置格式错误，已忽略: {}", tableConfig);
+                continue;
+            }
+            Set<String> columns = columnMap.computeIfAbsent(pair[0].trim().toLowerCase(Locale.ROOT), k -> new HashSet<>());
+            for (String column : StringUtils.split(pair[1], '|')) {
+                columns.add(column.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+}
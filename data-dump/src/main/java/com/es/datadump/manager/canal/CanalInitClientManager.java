@@ -2,11 +2,16 @@ package com.es.datadump.manager.canal;
 
 import com.alibaba.otter.canal.client.CanalConnector;
 import com.alibaba.otter.canal.client.CanalConnectors;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author yiheni
@@ -21,14 +26,24 @@ public class CanalInitClientManager {
     @Value("${canal.client.cluster}")
     private boolean cluster;
 
-    @Value("${canal.client.destination}")
-    private String destination;
+    /**
+     * 逗号分隔的多个destination，每个destination独立消费；未配置时兼容单个destination
+     */
+    @Value("${canal.client.destinations:${canal.client.destination}}")
+    private String[] destinations;
 
-    private CanalConnector canalConnector = null;
+    private final Map<String, CanalConnector> canalConnectors = new HashMap<>();
 
-    public final CanalConnector getCanalConnector() {
+    /**
+     * 获取destination对应的连接，每个destination一个连接
+     *
+     * @param destination
+     * @return
+     */
+    public final synchronized CanalConnector getCanalConnector(String destination) {
         logger.info("--------------canalServer:" + servers);
         logger.info("--------------destination:" + destination);
+        CanalConnector canalConnector = canalConnectors.get(destination);
         if (cluster) {
             canalConnector = CanalConnectors.newClusterConnector(servers, destination, "", "");
         } else {
@@ -40,6 +55,7 @@ public class CanalInitClientManager {
 
             }
         }
+        canalConnectors.put(destination, canalConnector);
         return canalConnector;
     }
 
@@ -57,8 +73,14 @@ public class CanalInitClientManager {
         return null;
     }
 
-    public String getDestination() {
-        return destination;
+    public List<String> getDestinations() {
+        List<String> list = new ArrayList<>();
+        for (String destination : destinations) {
+            if (StringUtils.isNotBlank(destination)) {
+                list.add(destination.trim());
+            }
+        }
+        return list;
     }
 
 }
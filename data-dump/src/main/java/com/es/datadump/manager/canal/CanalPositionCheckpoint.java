@@ -0,0 +1,176 @@
+package com.es.datadump.manager.canal;
+
+import com.es.datadump.model.BinlogPosition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * 单个destination已写入ES的binlog位点检查点
+ * 每次ack后更新内存中的位点，累计ack批次数或间隔时间达到阈值才写文件并force，
+ * 崩溃时最多丢失一个刷盘间隔内的位点，重启后多跳过的只是重复投递的数据。
+ * 文件格式为 [长度][CRC32][位点文本]，先写临时文件并force，再原子改名覆盖，崩溃时不会留下写了一半的位点；
+ * 打开时长度或校验不符的检查点直接忽略，从canal服务端的位点重新同步，宁可重放也不跳过未写入的数据。
+ * 只由canal消费线程访问，无需加锁。
+ *
+ * @author yiheni
+ */
+public class CanalPositionCheckpoint {
+
+    private final static Logger logger = LoggerFactory.getLogger(CanalPositionCheckpoint.class);
+    private final static String FILE_SUFFIX = ".checkpoint";
+    private final static String TEMP_SUFFIX = ".tmp";
+    /**
+     * 文件头：长度、CRC32
+     */
+    private final static int HEADER_BYTES = 4 + 4;
+
+    private final File file;
+    private final File tempFile;
+    private final int syncBatches;
+    private final long syncIntervalMs;
+
+    private BinlogPosition position;
+    private BinlogPosition syncedPosition;
+    private int pendingBatches;
+    private long lastSyncTime;
+
+    public CanalPositionCheckpoint(File dir, String destination, int syncBatches, long syncIntervalMs) {
+        this.file = new File(dir, destination + FILE_SUFFIX);
+        this.tempFile = new File(dir, destination + FILE_SUFFIX + TEMP_SUFFIX);
+        this.syncBatches = Math.max(1, syncBatches);
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    /**
+     * 打开检查点文件并读取上次保存的位点
+     *
+     * @return 上次保存的位点，首次启动返回null
+     * @throws IOException
+     */
+    public BinlogPosition open() throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建检查点目录失败: " + dir.getAbsolutePath());
+        }
+        //上次改名前崩溃留下的临时文件，内容未生效
+        Files.deleteIfExists(tempFile.toPath());
+        if (file.exists()) {
+            try {
+                position = decode(Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                logger.warn("检查点文件读取失败，忽略: {}", file, e);
+            }
+        }
+        syncedPosition = position;
+        lastSyncTime = System.currentTimeMillis();
+        logger.info("binlog检查点打开完成, file: {}, position: {}", file, position);
+        return position;
+    }
+
+    /**
+     * 记录最新ack批次的最后位点，达到刷盘阈值时写入文件
+     *
+     * @param acked
+     */
+    public void update(BinlogPosition acked) {
+        position = acked;
+        pendingBatches++;
+        if (pendingBatches >= syncBatches || System.currentTimeMillis() - lastSyncTime >= syncIntervalMs) {
+            sync();
+        }
+    }
+
+    /**
+     * 将内存中的位点写入文件并force，写入失败只记录日志，下次再试
+     */
+    public void sync() {
+        if (position == null || position == syncedPosition) {
+            return;
+        }
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = encode(position);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            forceDir();
+            syncedPosition = position;
+            pendingBatches = 0;
+            lastSyncTime = System.currentTimeMillis();
+        } catch (IOException e) {
+            logger.error("写入binlog检查点失败, file: {}, position: {}", file, position, e);
+        }
+    }
+
+    /**
+     * 最终刷盘，由关闭流程在canal消费线程退出后调用
+     */
+    public void close() {
+        sync();
+    }
+
+    private static ByteBuffer encode(BinlogPosition position) {
+        byte[] body = position.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 校验并解析检查点文件，不完整或已损坏时返回null
+     */
+    private BinlogPosition decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_BYTES || buffer.getInt() != bytes.length - HEADER_BYTES) {
+            logger.warn("检查点文件长度不符，忽略, file: {}, size: {}", file, bytes.length);
+            return null;
+        }
+        int expectedCrc = buffer.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES);
+        if ((int) crc.getValue() != expectedCrc) {
+            logger.warn("检查点文件校验失败，忽略, file: {}", file);
+            return null;
+        }
+        String text = new String(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES, StandardCharsets.UTF_8);
+        try {
+            return BinlogPosition.parse(text);
+        } catch (IllegalArgumentException e) {
+            logger.warn("检查点文件内容无法解析，忽略: {}, content: {}", file, text);
+            return null;
+        }
+    }
+
+    /**
+     * force目录，改名本身落盘；不支持打开目录的文件系统上忽略
+     */
+    private void forceDir() {
+        try (FileChannel dir = FileChannel.open(file.getParentFile().toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            logger.debug("检查点目录force失败: {}", file.getParentFile(), e);
+        }
+    }
+
+    public BinlogPosition getPosition() {
+        return position;
+    }
+}
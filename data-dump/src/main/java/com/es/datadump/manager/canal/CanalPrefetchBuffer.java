@@ -0,0 +1,178 @@
+package com.es.datadump.manager.canal;
+
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import com.es.datadump.model.DumpRow;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * canal预取队列
+ * 拉取线程拉到批次并提交解析任务后放入队列，立即去拉取下一批；
+ * 分派线程按拉取顺序取出批次，等待解析结果后分派到写入通道。
+ * 队列同时限制批次数和binlog字节数，单个批次超过字节上限时只在队列为空时放入。
+ *
+ * @author yiheni
+ */
+public class CanalPrefetchBuffer {
+
+    private final int maxDepth;
+    private final long maxBytes;
+    private final Deque<PrefetchedMessage> queue;
+    private long bytes;
+
+    public CanalPrefetchBuffer(int maxDepth, long maxBytes) {
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxBytes = maxBytes;
+        //按深度上限预分配，运行期间不扩容
+        this.queue = new ArrayDeque<>(this.maxDepth);
+    }
+
+    /**
+     * 放入一个预取批次，队列满时最多等待timeoutMs
+     *
+     * @param message
+     * @param timeoutMs
+     * @return 是否放入成功
+     * @throws InterruptedException
+     */
+    public synchronized boolean offer(PrefetchedMessage message, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (queue.size() >= maxDepth || (!queue.isEmpty() && bytes + message.memSize > maxBytes)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        queue.addLast(message);
+        bytes += message.memSize;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 取出队首批次，队列为空时最多等待timeoutMs
+     *
+     * @param timeoutMs
+     * @return 超时返回null
+     * @throws InterruptedException
+     */
+    public synchronized PrefetchedMessage poll(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (queue.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        PrefetchedMessage message = queue.pollFirst();
+        bytes -= message.memSize;
+        notifyAll();
+        return message;
+    }
+
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * 队列占用率，取批次数与字节数两者占上限比例的较大值
+     *
+     * @return
+     */
+    public synchronized double getOccupancy() {
+        double depth = (double) queue.size() / maxDepth;
+        return maxBytes == Long.MAX_VALUE ? depth : Math.max(depth, Math.min(1D, (double) bytes / maxBytes));
+    }
+
+    /**
+     * 暴露预取队列占用率，作为链路的fetch阶段
+     *
+     * @param registry
+     * @param destination
+     */
+    public void bindTo(MeterRegistry registry, String destination) {
+        Gauge.builder(DumpMetricsManager.PIPELINE_OCCUPANCY, this, CanalPrefetchBuffer::getOccupancy)
+                .tag("stage", "fetch")
+                .tag("destination", destination)
+                .description("链路阶段的队列占用率，0到1")
+                .register(registry);
+    }
+
+    /**
+     * 丢弃未分派的批次，回滚时调用，丢弃的批次由canal重新投递
+     */
+    public synchronized void clear() {
+        for (PrefetchedMessage message : queue) {
+            message.applied.cancel(false);
+        }
+        queue.clear();
+        bytes = 0L;
+        notifyAll();
+    }
+
+    /**
+     * 已拉取、已提交解析任务、等待分派的批次
+     */
+    public static class PrefetchedMessage {
+        private final long batchId;
+        private final long memSize;
+        private final Map<String, Long> executeTimes;
+        private final List<Future<List<DumpRow>>> parseFutures;
+        private final BitSet transactionEnds;
+        private final CompletableFuture<Void> applied = new CompletableFuture<>();
+
+        public PrefetchedMessage(long batchId, long memSize, Map<String, Long> executeTimes,
+                                 List<Future<List<DumpRow>>> parseFutures, BitSet transactionEnds) {
+            this.batchId = batchId;
+            this.memSize = memSize;
+            this.executeTimes = executeTimes;
+            this.parseFutures = parseFutures;
+            this.transactionEnds = transactionEnds;
+        }
+
+        public long getBatchId() {
+            return batchId;
+        }
+
+        /**
+         * 批次内每张表最早的binlog执行时间
+         *
+         * @return
+         */
+        public Map<String, Long> getExecuteTimes() {
+            return executeTimes;
+        }
+
+        public List<Future<List<DumpRow>>> getParseFutures() {
+            return parseFutures;
+        }
+
+        /**
+         * 批次内TRANSACTIONEND所在的下标，与parseFutures下标一致
+         *
+         * @return
+         */
+        public BitSet getTransactionEnds() {
+            return transactionEnds;
+        }
+
+        /**
+         * 批次全部写入ES后完成，解析或写入失败则异常完成
+         *
+         * @return
+         */
+        public CompletableFuture<Void> getApplied() {
+            return applied;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.es.datadump.manager.deadletter;
+
+import com.es.datadump.enums.DumpRejectedPolicy;
+import com.es.datadump.manager.elasticsearch.BulkConcurrencyLimiter;
+import com.es.datadump.manager.elasticsearch.ElasticSearchBulkManager;
+import com.es.datadump.manager.executor.DumpExecutorManager;
+import com.es.datadump.manager.spool.SpoolRecord;
+import com.es.datadump.model.DeadLetterReplayResult;
+import com.es.stone.manager.ElasticSearchDumpManager;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 死信存储
+ * 写入ES失败且重试无意义的文档（索引、主键、操作、文档、错误、binlog位点）追加到本地死信文件，
+ * 记录格式 [失败时间][写入请求][错误信息]，写入请求与spool共用编码。
+ * 故障恢复后通过管理接口重放：文件按写入先后依次处理，文件内按索引与主键分区并行，
+ * 同一文档的死信始终在同一分区内按文件顺序写入，某条失败后该文档之后的死信不再写入、按原顺序重新记入死信。
+ * 未开启外部版本号时，旧的死信会覆盖之后同步的新数据或恢复已删除的文档，须显式force才允许重放。
+ *
+ * @author yiheni
+ */
+public class DeadLetterStore implements MeterBinder {
+
+    private final static Logger logger = LoggerFactory.getLogger(DeadLetterStore.class);
+    private final static String FILE_PREFIX = "dead-letter-";
+    private final static String FILE_SUFFIX = ".dlq";
+    private final static int MAX_ERROR_LENGTH = 2000;
+
+    /**
+     * 死信重放线程池名称
+     */
+    public final static String REPLAY_EXECUTOR = "dead-letter-replay";
+
+    @Autowired
+    private ElasticSearchDumpManager elasticSearchDumpManager;
+
+    @Autowired
+    private BulkConcurrencyLimiter bulkConcurrencyLimiter;
+
+    @Autowired
+    private DumpExecutorManager dumpExecutorManager;
+
+    @Value("${dump.dead-letter.dir:dead-letter}")
+    private String dir;
+
+    @Value("${dump.dead-letter.max-file-mb:64}")
+    private long maxFileMb;
+
+    @Value("${dump.dead-letter.replay-batch:500}")
+    private int replayBatch;
+
+    @Value("${dump.dead-letter.replay-parallelism:4}")
+    private int replayParallelism;
+
+    @Value("${dump.bulk.external-version:false}")
+    private boolean externalVersion;
+
+    private File directory;
+    private File currentFile;
+    private FileOutputStream currentStream;
+    private DataOutputStream out;
+    private int fileSequence;
+    private final AtomicLong appended = new AtomicLong();
+    private final ReentrantLock replayLock = new ReentrantLock();
+    private ThreadPoolExecutor replayExecutor;
+
+    /**
+     * 初始化死信目录与重放线程池，由spring init-method调用
+     */
+    public void init() {
+        directory = new File(dir);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("创建死信目录失败: " + directory.getAbsolutePath());
+        }
+        replayExecutor = dumpExecutorManager.newExecutor(REPLAY_EXECUTOR, replayParallelism, replayParallelism * 2,
+                DumpRejectedPolicy.CALLER_RUNS);
+        logger.info("死信存储初始化完成, dir: {}, 待重放文件数: {}", directory.getAbsolutePath(), listFiles().size());
+    }
+
+    /**
+     * 由spring destroy-method调用
+     */
+    public synchronized void destroy() {
+        closeCurrent();
+    }
+
+    /**
+     * 记入死信，写入失败只记录日志，不影响同步
+     *
+     * @param request
+     * @param position binlog位点
+     * @param error
+     */
+    public void append(DocWriteRequest request, String position, String error) {
+        try {
+            append(SpoolRecord.of(request, position), error);
+        } catch (IOException e) {
+            logger.error("写入死信失败, index: {}, id: {}, position: {}, error: {}",
+                    request.index(), request.id(), position, error, e);
+        }
+    }
+
+    private synchronized void append(SpoolRecord record, String error) throws IOException {
+        if (out == null || out.size() >= maxFileMb * 1024 * 1024) {
+            roll();
+        }
+        out.writeLong(System.currentTimeMillis());
+        out.write(record.encode());
+        out.writeUTF(StringUtils.abbreviate(StringUtils.defaultString(error), MAX_ERROR_LENGTH));
+        out.flush();
+        currentStream.getFD().sync();
+        appended.incrementAndGet();
+    }
+
+    /**
+     * 重放全部死信文件：文件依次处理，文件内按文档分区并行写入ES，文件处理完即删除，仍失败的文档重新记入死信
+     * 同一时间只允许一个重放任务
+     *
+     * @param force 未开启外部版本号时须为true，确认旧的死信可以覆盖ES中的数据
+     * @return
+     */
+    public DeadLetterReplayResult replay(boolean force) {
+        if (!externalVersion && !force) {
+            throw new IllegalStateException("未开启外部版本号，重放旧的死信可能覆盖之后同步的新数据或恢复已删除的文档，确认后以force=true重放");
+        }
+        if (!replayLock.tryLock()) {
+            throw new IllegalStateException("死信重放正在进行中");
+        }
+        try {
+            long start = System.currentTimeMillis();
+            List<File> files;
+            synchronized (this) {
+                //新的死信写入新文件，不影响本次重放
+                closeCurrent();
+                files = listFiles();
+            }
+            DeadLetterReplayResult result = new DeadLetterReplayResult();
+            for (File file : files) {
+                replayFile(file, result);
+            }
+            result.setCostMs(System.currentTimeMillis() - start);
+            logger.info("死信重放完成, files: {}, total: {}, succeeded: {}, failed: {}, costMs: {}",
+                    result.getFiles(), result.getTotal(), result.getSucceeded(), result.getFailed(), result.getCostMs());
+            return result;
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    private void replayFile(File file, DeadLetterReplayResult result) {
+        List<SpoolRecord> records = read(file);
+        List<List<SpoolRecord>> partitions = partition(records, Math.max(1, replayParallelism));
+        List<Future<List<FailedRecord>>> futures = new ArrayList<>();
+        for (List<SpoolRecord> partition : partitions) {
+            if (!partition.isEmpty()) {
+                futures.add(replayExecutor.submit(() -> replayPartition(partition)));
+            }
+        }
+        List<FailedRecord> failed = new ArrayList<>();
+        for (Future<List<FailedRecord>> future : futures) {
+            try {
+                failed.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("死信重放被中断，文件保留: " + file.getName(), e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("死信重放异常，文件保留: " + file.getName(), e.getCause());
+            }
+        }
+        for (FailedRecord failedRecord : failed) {
+            try {
+                append(failedRecord.record, failedRecord.error);
+            } catch (IOException e) {
+                throw new IllegalStateException("重放失败的死信回写异常，文件保留: " + file.getName(), e);
+            }
+        }
+        if (!file.delete()) {
+            logger.warn("删除已重放的死信文件失败: {}", file);
+        }
+        result.addFile(records.size(), failed.size());
+    }
+
+    /**
+     * 按索引与主键分区，分区内保持文件顺序
+     *
+     * @param records
+     * @param count
+     * @return
+     */
+    static List<List<SpoolRecord>> partition(List<SpoolRecord> records, int count) {
+        List<List<SpoolRecord>> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (SpoolRecord record : records) {
+            partitions.get(Math.floorMod(keyOf(record).hashCode(), count)).add(record);
+        }
+        return partitions;
+    }
+
+    /**
+     * 按顺序重放一个分区：同一文档在一个批量请求中只出现一次，某条失败后该文档之后的死信不再写入，
+     * 与失败的那条一起按原顺序重新记入死信，避免旧数据在新数据之后写入
+     *
+     * @param records
+     * @return 仍失败的记录，同一文档保持原顺序
+     * @throws InterruptedException
+     */
+    List<FailedRecord> replayPartition(List<SpoolRecord> records) throws InterruptedException {
+        List<FailedRecord> failed = new ArrayList<>();
+        Set<String> failedKeys = new HashSet<>();
+        List<SpoolRecord> batch = new ArrayList<>();
+        Set<String> batchKeys = new HashSet<>();
+        for (SpoolRecord record : records) {
+            String key = keyOf(record);
+            if (batch.size() >= replayBatch || batchKeys.contains(key)) {
+                flush(batch, failed, failedKeys);
+                batchKeys.clear();
+            }
+            if (failedKeys.contains(key)) {
+                failed.add(new FailedRecord(record, "同一文档之前的死信重放失败，未写入"));
+                continue;
+            }
+            batch.add(record);
+            batchKeys.add(key);
+        }
+        flush(batch, failed, failedKeys);
+        return failed;
+    }
+
+    private void flush(List<SpoolRecord> batch, List<FailedRecord> failed, Set<String> failedKeys)
+            throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (FailedRecord failedRecord : replayBatch(batch)) {
+            failed.add(failedRecord);
+            failedKeys.add(keyOf(failedRecord.record));
+        }
+        batch.clear();
+    }
+
+    private static String keyOf(SpoolRecord record) {
+        return record.getIndex() + '/' + record.getId();
+    }
+
+    /**
+     * 批量写入一批死信，返回仍失败的记录
+     */
+    private List<FailedRecord> replayBatch(List<SpoolRecord> batch) throws InterruptedException {
+        BulkRequest request = new BulkRequest();
+        for (SpoolRecord record : batch) {
+            request.add(record.toRequest());
+        }
+        bulkConcurrencyLimiter.acquire();
+        long start = System.nanoTime();
+        BulkResponse response;
+        try {
+            response = elasticSearchDumpManager.bulk(request);
+        } catch (Exception e) {
+            bulkConcurrencyLimiter.release(System.nanoTime() - start, true);
+            List<FailedRecord> failed = new ArrayList<>(batch.size());
+            for (SpoolRecord record : batch) {
+                failed.add(new FailedRecord(record, e.toString()));
+            }
+            return failed;
+        }
+        bulkConcurrencyLimiter.release(System.nanoTime() - start, false);
+        if (!response.hasFailures()) {
+            return Collections.emptyList();
+        }
+        List<FailedRecord> failed = new ArrayList<>();
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed() && !ElasticSearchBulkManager.isStale(request.requests().get(item.getItemId()),
+                    item.getFailure().getStatus())) {
+                failed.add(new FailedRecord(batch.get(item.getItemId()), item.getFailureMessage()));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * 读取死信文件，末尾未写完的记录忽略
+     */
+    private List<SpoolRecord> read(File file) {
+        List<SpoolRecord> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                long failedTime;
+                try {
+                    failedTime = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                records.add(SpoolRecord.decode(in, failedTime));
+                in.readUTF();
+            }
+        } catch (EOFException e) {
+            logger.warn("死信文件末尾记录不完整，已忽略: {}", file);
+        } catch (IOException e) {
+            throw new IllegalStateException("读取死信文件失败: " + file, e);
+        }
+        return records;
+    }
+
+    private void roll() throws IOException {
+        closeCurrent();
+        currentFile = new File(directory, FILE_PREFIX + System.currentTimeMillis() + "-" + (fileSequence++) + FILE_SUFFIX);
+        currentStream = new FileOutputStream(currentFile, true);
+        out = new DataOutputStream(new BufferedOutputStream(currentStream));
+    }
+
+    private void closeCurrent() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("关闭死信文件异常: {}", currentFile, e);
+        }
+        out = null;
+        currentStream = null;
+        currentFile = null;
+    }
+
+    private List<File> listFiles() {
+        File[] files = directory.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> list = new ArrayList<>(Arrays.asList(files));
+        list.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        return list;
+    }
+
+    private long getTotalBytes() {
+        long bytes = 0L;
+        for (File file : listFiles()) {
+            bytes += file.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * 暴露死信文件总大小与累计记入次数
+     *
+     * @param registry
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("dump.dead-letter.bytes", this, DeadLetterStore::getTotalBytes)
+                .baseUnit("bytes")
+                .description("待重放的死信文件总大小")
+                .register(registry);
+        FunctionCounter.builder("dump.dead-letter.appended", appended, AtomicLong::doubleValue)
+                .description("累计记入死信的文档数")
+                .register(registry);
+    }
+
+    static class FailedRecord {
+        private final SpoolRecord record;
+        private final String error;
+
+        FailedRecord(SpoolRecord record, String error) {
+            this.record = record;
+            this.error = error;
+        }
+
+        SpoolRecord getRecord() {
+            return record;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.es.datadump.manager.elasticsearch;
+
+import com.es.datadump.manager.executor.DumpLaneScheduler;
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ES批量写入并发的AIMD自适应限制
+ * 写入正常且并发已用满时线性加一（每轮并发请求加1）；ES拒绝（429/503）、网络异常或耗时超过阈值时按比例减小，
+ * 同一次过载在一个请求耗时内只减一次，避免同一波拒绝把并发压到最低。
+ * 超过当前并发上限的写入在通道线程上等待，反压沿通道队列传回canal分派。
+ *
+ * @author yiheni
+ */
+public class BulkConcurrencyLimiter implements MeterBinder {
+
+    private final static Logger logger = LoggerFactory.getLogger(BulkConcurrencyLimiter.class);
+
+    @Autowired
+    private DumpLaneScheduler dumpLaneScheduler;
+
+    @Value("${dump.bulk.concurrency.min:1}")
+    private int minConcurrency;
+
+    /**
+     * 并发上限，小于等于0时取通道数
+     */
+    @Value("${dump.bulk.concurrency.max:0}")
+    private int maxConcurrency;
+
+    /**
+     * 初始并发，小于等于0时取上限
+     */
+    @Value("${dump.bulk.concurrency.initial:0}")
+    private int initialConcurrency;
+
+    @Value("${dump.bulk.concurrency.latency-threshold-ms:2000}")
+    private long latencyThresholdMs;
+
+    @Value("${dump.bulk.concurrency.backoff-ratio:0.5}")
+    private double backoffRatio;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+
+    /**
+     * 初始化并发上限，由spring init-method调用
+     */
+    public void init() {
+        if (maxConcurrency <= 0) {
+            maxConcurrency = dumpLaneScheduler.getLaneCount();
+        }
+        minConcurrency = Math.max(1, Math.min(minConcurrency, maxConcurrency));
+        limit = initialConcurrency <= 0 ? maxConcurrency : Math.max(minConcurrency, Math.min(initialConcurrency, maxConcurrency));
+        lastDecreaseNanos = System.nanoTime();
+        logger.info("ES写入并发限制初始化完成, limit: {}, min: {}, max: {}", (int) limit, minConcurrency, maxConcurrency);
+    }
+
+    /**
+     * 获取一个写入许可，达到当前并发上限时等待
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * 归还写入许可，并根据本次写入结果调整并发上限
+     *
+     * @param latencyNanos 本次批量请求耗时
+     * @param rejected     ES是否拒绝或连接异常
+     */
+    public synchronized void release(long latencyNanos, boolean rejected) {
+        boolean saturated = inFlight >= (int) limit;
+        inFlight--;
+        if (rejected) {
+            rejections.incrementAndGet();
+        }
+        if (rejected || latencyNanos > TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs)) {
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos > latencyNanos) {
+                double previous = limit;
+                limit = Math.max(minConcurrency, limit * backoffRatio);
+                lastDecreaseNanos = now;
+                decreases.incrementAndGet();
+                logger.warn("ES写入过载，并发上限调整: {} -> {}, rejected: {}, latency: {}ms",
+                        (int) previous, (int) limit, rejected, TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            }
+        } else if (saturated) {
+            limit = Math.min(maxConcurrency, limit + 1.0 / limit);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 在途请求数占当前并发上限的比例
+     *
+     * @return
+     */
+    public synchronized double getOccupancy() {
+        int currentLimit = getLimit();
+        return currentLimit <= 0 ? 0D : Math.min(1D, (double) inFlight / currentLimit);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * 暴露当前并发上限、在途请求数、拒绝次数与减小次数
+     *
+     * @param registry
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("dump.es.concurrency.limit", this, BulkConcurrencyLimiter::getLimit)
+                .description("ES批量写入的当前并发上限")
+                .register(registry);
+        Gauge.builder("dump.es.concurrency.inflight", this, BulkConcurrencyLimiter::getInFlight)
+                .description("ES批量写入的在途请求数")
+                .register(registry);
+        Gauge.builder(DumpMetricsManager.PIPELINE_OCCUPANCY, this, BulkConcurrencyLimiter::getOccupancy)
+                .tag("stage", "es")
+                .tag("destination", DumpMetricsManager.ALL_DESTINATIONS)
+                .description("链路阶段的队列占用率，0到1")
+                .register(registry);
+        FunctionCounter.builder("dump.es.rejections", rejections, AtomicLong::doubleValue)
+                .description("ES拒绝或连接异常的批量请求数")
+                .register(registry);
+        FunctionCounter.builder("dump.es.concurrency.decreases", decreases, AtomicLong::doubleValue)
+                .description("ES写入并发上限减小的次数")
+                .register(registry);
+    }
+}
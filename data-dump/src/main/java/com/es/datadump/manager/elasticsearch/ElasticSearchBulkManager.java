@@ -0,0 +1,526 @@
+package com.es.datadump.manager.elasticsearch;
+
+import com.es.datadump.manager.deadletter.DeadLetterStore;
+import com.es.datadump.manager.executor.DumpLaneScheduler;
+import com.es.datadump.manager.executor.DumpThreadFactory;
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import com.es.stone.manager.ElasticSearchDumpManager;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量同步ES
+ * 每个写入方（canal destination、spool排空线程）在每个通道上持有独立的批量缓冲，只由该通道的消费线程访问，无需加锁；
+ * 缓冲不在写入方之间共享，一次提交失败只会让缓冲内容所属的写入方回滚，不会让其他写入方确认未写入ES的数据。
+ * 同一文档在缓冲内的多次变更合并为一次写入（最终状态或一次删除），
+ * 条数、字节数或积攒时间达到阈值即提交。
+ *
+ * @author yiheni
+ */
+public class ElasticSearchBulkManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(ElasticSearchBulkManager.class);
+    /**
+     * 请求头部的估算开销，与BulkRequest的估算方式一致
+     */
+    private final static int REQUEST_OVERHEAD = 50;
+
+    @Autowired
+    private ElasticSearchDumpManager elasticSearchDumpManager;
+
+    @Autowired
+    private DumpLaneScheduler dumpLaneScheduler;
+
+    @Autowired
+    private DumpMetricsManager dumpMetricsManager;
+
+    @Autowired
+    private BulkConcurrencyLimiter bulkConcurrencyLimiter;
+
+    @Autowired
+    private DeadLetterStore deadLetterStore;
+
+    @Value("${dump.bulk.actions:1000}")
+    private int bulkActions;
+
+    @Value("${dump.bulk.size-kb:5120}")
+    private long bulkSizeKb;
+
+    @Value("${dump.bulk.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${dump.bulk.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${dump.bulk.retry-backoff-ms:200}")
+    private long retryBackoffMs;
+
+    /**
+     * 合并窗口，批次结束时缓冲积攒不足该时长则延后提交，跨批次合并热点文档；0表示批次结束即提交
+     */
+    @Value("${dump.bulk.coalesce-window-ms:0}")
+    private long coalesceWindowMs;
+
+    /**
+     * 写入方 -> 各通道的批量缓冲
+     */
+    private final Map<String, BulkBuffer[]> buffers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService windowTimer;
+
+    /**
+     * 由spring init-method调用
+     */
+    public void init() {
+        if (coalesceWindowMs > 0) {
+            windowTimer = Executors.newSingleThreadScheduledExecutor(new DumpThreadFactory("bulk-window"));
+        }
+    }
+
+    /**
+     * 由spring destroy-method调用
+     */
+    public void destroy() {
+        if (windowTimer != null) {
+            windowTimer.shutdownNow();
+        }
+    }
+
+    /**
+     * 追加一条写入请求到通道缓冲，达到阈值时立即提交
+     * 只能在通道自身的消费线程中调用
+     *
+     * @param owner    写入方，如canal destination
+     * @param lane
+     * @param request
+     * @param position 请求对应的binlog位点，写入失败时记入死信
+     */
+    public void add(String owner, int lane, DocWriteRequest request, String position) {
+        add(owner, lane, request, null, position);
+    }
+
+    /**
+     * 追加一条部分更新请求到通道缓冲，ES中文档不存在时改为提交fallback
+     * 只能在通道自身的消费线程中调用
+     *
+     * @param owner
+     * @param lane
+     * @param request
+     * @param fallback 部分更新对应的整行upsert，可为空
+     * @param position
+     */
+    public void add(String owner, int lane, DocWriteRequest request, DocWriteRequest fallback, String position) {
+        BulkBuffer buffer = buffersOf(owner)[lane];
+        if (buffer.add(new BufferedWrite(request, fallback, position))) {
+            dumpMetricsManager.recordCoalesced(request.index(), 1);
+        }
+        if (buffer.requests.size() >= bulkActions
+                || buffer.bytes >= bulkSizeKb * 1024
+                || System.currentTimeMillis() - buffer.firstAddTime >= flushIntervalMs) {
+            flush(owner, lane);
+        }
+    }
+
+    /**
+     * 批次结束时提交通道缓冲，返回的future在缓冲内已有的请求写入ES后完成
+     * 配置了合并窗口且缓冲积攒不足窗口时长时，延后到窗口结束再提交，期间后续批次的同一文档继续合并
+     * 只能在通道自身的消费线程中调用
+     *
+     * @param owner
+     * @param lane
+     * @return
+     */
+    public CompletableFuture<Void> flushBatch(String owner, int lane) {
+        BulkBuffer buffer = buffersOf(owner)[lane];
+        long age = System.currentTimeMillis() - buffer.firstAddTime;
+        if (buffer.requests.isEmpty() || coalesceWindowMs <= 0 || age >= coalesceWindowMs) {
+            flush(owner, lane);
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        buffer.waiters.add(waiter);
+        if (!buffer.flushScheduled) {
+            buffer.flushScheduled = true;
+            windowTimer.schedule(() -> dumpLaneScheduler.submit(lane, () -> flushWindow(owner, lane)),
+                    coalesceWindowMs - age, TimeUnit.MILLISECONDS);
+        }
+        return waiter;
+    }
+
+    /**
+     * 各通道提交写入方批次结束时的缓冲，返回的future在该写入方之前加入各通道的请求全部写入ES后完成
+     *
+     * @param owner
+     * @return
+     */
+    public CompletableFuture<Void> flushAllLanes(String owner) {
+        int laneCount = buffersOf(owner).length;
+        CompletableFuture<?>[] flushFutures = new CompletableFuture[laneCount];
+        for (int lane = 0; lane < laneCount; lane++) {
+            final int flushLane = lane;
+            flushFutures[lane] = dumpLaneScheduler.supply(lane, () -> flushBatch(owner, flushLane))
+                    .thenCompose(flushed -> flushed);
+        }
+        return CompletableFuture.allOf(flushFutures);
+    }
+
+    /**
+     * 提交写入方在通道上缓冲的全部请求
+     * 只能在通道自身的消费线程中调用
+     *
+     * @param owner
+     * @param lane
+     */
+    public void flush(String owner, int lane) {
+        BulkBuffer buffer = buffersOf(owner)[lane];
+        List<CompletableFuture<Void>> waiters = buffer.waiters;
+        buffer.waiters = new ArrayList<>();
+        if (buffer.requests.isEmpty()) {
+            waiters.forEach(waiter -> waiter.complete(null));
+            return;
+        }
+        List<BufferedWrite> writes = new ArrayList<>(buffer.requests.values());
+        buffer.requests.clear();
+        buffer.bytes = 0L;
+        try {
+            execute(writes);
+        } catch (RuntimeException e) {
+            waiters.forEach(waiter -> waiter.completeExceptionally(e));
+            throw e;
+        }
+        waiters.forEach(waiter -> waiter.complete(null));
+    }
+
+    /**
+     * 提交一个按事务组装的批量单元，单元内同一文档的变更先合并再一次写入
+     * 由调用方保证同一destination的单元按binlog顺序依次提交
+     *
+     * @param unit
+     */
+    public void executeUnit(List<BufferedWrite> unit) {
+        BulkBuffer buffer = new BulkBuffer();
+        for (BufferedWrite write : unit) {
+            if (buffer.add(write)) {
+                dumpMetricsManager.recordCoalesced(write.request.index(), 1);
+            }
+        }
+        execute(new ArrayList<>(buffer.requests.values()));
+    }
+
+    public int getBulkActions() {
+        return bulkActions;
+    }
+
+    public long getBulkSizeBytes() {
+        return bulkSizeKb * 1024;
+    }
+
+    /**
+     * 估算单条请求在批量请求中的字节数
+     *
+     * @param request
+     * @return
+     */
+    static long sizeOf(DocWriteRequest request) {
+        long size = REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest) {
+            size += ((IndexRequest) request).source().length();
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest update = (UpdateRequest) request;
+            if (update.doc() != null) {
+                size += update.doc().source().length();
+            }
+            if (update.upsertRequest() != null) {
+                size += update.upsertRequest().source().length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 合并窗口到期，在通道消费线程中提交
+     *
+     * @param owner
+     * @param lane
+     */
+    private void flushWindow(String owner, int lane) {
+        buffersOf(owner)[lane].flushScheduled = false;
+        try {
+            flush(owner, lane);
+        } catch (RuntimeException e) {
+            //失败已回填到等待的批次，由批次回滚处理
+            logger.error("合并窗口到期提交ES失败, owner: {}, lane: {}", owner, lane, e);
+        }
+    }
+
+    /**
+     * 写入方在各通道上的批量缓冲，首次写入时创建
+     *
+     * @param owner
+     * @return
+     */
+    private BulkBuffer[] buffersOf(String owner) {
+        return buffers.computeIfAbsent(owner, key -> {
+            BulkBuffer[] laneBuffers = new BulkBuffer[dumpLaneScheduler.getLaneCount()];
+            for (int i = 0; i < laneBuffers.length; i++) {
+                laneBuffers[i] = new BulkBuffer();
+            }
+            return laneBuffers;
+        });
+    }
+
+    /**
+     * 提交批量请求并逐条处理响应
+     * 整批的网络异常、逐条的限流拒绝可重试，退避后只重新提交失败的部分；
+     * 带外部版本号的请求版本冲突，说明ES中已是更新位点的数据，计为过期写入跳过；
+     * 部分更新的文档不存在时，改为提交整行upsert；
+     * 其余逐条失败是数据本身的问题，重试无意义，记入死信后跳过。
+     * 每次提交前获取并发许可，按耗时与是否被拒绝调整并发上限。
+     *
+     * @param writes
+     */
+    protected void execute(List<BufferedWrite> writes) {
+        List<BufferedWrite> pendingWrites = writes;
+        for (int attempt = 0; ; attempt++) {
+            BulkRequest pending = new BulkRequest();
+            for (BufferedWrite write : pendingWrites) {
+                pending.add(write.request);
+            }
+            BulkResponse response;
+            acquirePermit();
+            long writeStart = System.nanoTime();
+            try {
+                response = elasticSearchDumpManager.bulk(pending);
+            } catch (IOException e) {
+                bulkConcurrencyLimiter.release(System.nanoTime() - writeStart, true);
+                dumpMetricsManager.recordEsError(e.getClass().getSimpleName(), pending.numberOfActions());
+                if (attempt >= maxRetries) {
+                    throw new RuntimeException("批量同步ES失败，重试次数：" + attempt, e);
+                }
+                logger.warn("批量同步ES异常，重试次数: {}, 条数: {}", attempt, pending.numberOfActions(), e);
+                backoff(attempt);
+                continue;
+            } catch (RuntimeException e) {
+                bulkConcurrencyLimiter.release(System.nanoTime() - writeStart, true);
+                throw e;
+            }
+            long latencyNanos = System.nanoTime() - writeStart;
+            dumpMetricsManager.recordStage(DumpMetricsManager.STAGE_ES_WRITE, writeStart);
+            if (!response.hasFailures()) {
+                bulkConcurrencyLimiter.release(latencyNanos, false);
+                return;
+            }
+
+            List<BufferedWrite> retry = new ArrayList<>();
+            List<BufferedWrite> fallbacks = new ArrayList<>();
+            for (BulkItemResponse item : response.getItems()) {
+                if (!item.isFailed()) {
+                    continue;
+                }
+                BufferedWrite write = pendingWrites.get(item.getItemId());
+                if (isStale(write.request, item.getFailure().getStatus())) {
+                    dumpMetricsManager.recordStaleWrite(item.getIndex(), 1);
+                    continue;
+                }
+                if (write.fallback != null && item.getFailure().getStatus() == RestStatus.NOT_FOUND) {
+                    dumpMetricsManager.recordPartialFallback(item.getIndex(), 1);
+                    fallbacks.add(new BufferedWrite(write.fallback, null, write.position));
+                    continue;
+                }
+                dumpMetricsManager.recordEsError(item.getFailure().getStatus().name(), 1);
+                if (isRetryable(item.getFailure().getStatus())) {
+                    retry.add(write);
+                } else {
+                    logger.error("批量同步ES单条失败, index: {}, id: {}, opType: {}, error: {}",
+                            item.getIndex(), item.getId(), item.getOpType(), item.getFailureMessage());
+                    deadLetterStore.append(write.request, write.position, item.getFailureMessage());
+                }
+            }
+            bulkConcurrencyLimiter.release(latencyNanos, !retry.isEmpty());
+            if (!retry.isEmpty()) {
+                if (attempt >= maxRetries) {
+                    throw new RuntimeException("批量同步ES被拒绝，重试次数：" + attempt + "，剩余条数：" + retry.size());
+                }
+                logger.warn("批量同步ES部分被拒绝，重试次数: {}, 重试条数: {}", attempt, retry.size());
+                backoff(attempt);
+            } else if (fallbacks.isEmpty()) {
+                return;
+            } else {
+                //只有整行upsert需要提交，不占用重试次数
+                attempt--;
+            }
+            retry.addAll(fallbacks);
+            pendingWrites = retry;
+        }
+    }
+
+    private void acquirePermit() {
+        try {
+            bulkConcurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待ES写入并发许可被中断", e);
+        }
+    }
+
+    /**
+     * 外部版本号冲突：ES中的文档来自更新的binlog位点
+     *
+     * @param request
+     * @param status
+     * @return
+     */
+    public static boolean isStale(DocWriteRequest request, RestStatus status) {
+        return status == RestStatus.CONFLICT && request.versionType() != VersionType.INTERNAL;
+    }
+
+    private boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+    }
+
+    private void backoff(int attempt) {
+        try {
+            Thread.sleep(retryBackoffMs << attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("批量同步ES重试等待被中断", e);
+        }
+    }
+
+    /**
+     * 通道内的批量缓冲，按文档合并
+     */
+    static class BulkBuffer {
+        private final Map<String, BufferedWrite> requests = new LinkedHashMap<>();
+        private List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        private long bytes;
+        private long firstAddTime;
+        private boolean flushScheduled;
+
+        /**
+         * 加入缓冲，同一文档已有未提交的请求时合并为一条
+         *
+         * @param write
+         * @return 是否发生合并
+         */
+        boolean add(BufferedWrite write) {
+            if (requests.isEmpty()) {
+                firstAddTime = System.currentTimeMillis();
+            }
+            DocWriteRequest request = write.request;
+            String key = request.index() + '/' + request.id();
+            BufferedWrite previous = requests.get(key);
+            BufferedWrite merged = write;
+            if (previous != null) {
+                DocWriteRequest mergedRequest = merge(previous.request, request, write.fallback);
+                //整行upsert取最后一次变更的整行数据；合并结果为删除、整体覆盖或已带upsert时不再需要，
+                //否则删除在文档不存在时会改为提交upsert，把已删除的文档写回
+                DocWriteRequest fallback = null;
+                if (mergedRequest instanceof UpdateRequest && ((UpdateRequest) mergedRequest).upsertRequest() == null) {
+                    fallback = write.fallback != null ? write.fallback : previous.fallback;
+                }
+                merged = new BufferedWrite(mergedRequest, fallback, write.position);
+            }
+            requests.put(key, merged);
+            bytes += sizeOf(merged.request) - (previous == null ? 0 : sizeOf(previous.request));
+            return previous != null;
+        }
+
+        /**
+         * 按首次加入顺序排列的缓冲内容
+         *
+         * @return
+         */
+        List<BufferedWrite> getWrites() {
+            return new ArrayList<>(requests.values());
+        }
+
+        /**
+         * 合并同一文档的前后两次变更，结果与按顺序分别写入ES一致：
+         * 删除或整体覆盖直接取代之前的变更；删除后再插入等价于整体覆盖；
+         * 两次更新合并字段，后者覆盖前者；只要有一次带整行upsert，合并结果的upsert即为最新整行。
+         */
+        private static DocWriteRequest merge(DocWriteRequest previous, DocWriteRequest next, DocWriteRequest fallback) {
+            if (!(next instanceof UpdateRequest)) {
+                return next;
+            }
+            UpdateRequest update = (UpdateRequest) next;
+            if (previous instanceof DeleteRequest) {
+                if (fallback instanceof UpdateRequest) {
+                    //删除后的部分更新，以整行数据覆盖
+                    update = (UpdateRequest) fallback;
+                }
+                IndexRequest source = update.upsertRequest() != null ? update.upsertRequest() : update.doc();
+                return new IndexRequest(update.index(), update.type(), update.id())
+                        .source(source.source(), source.getContentType());
+            }
+            if (previous instanceof IndexRequest) {
+                Map<String, Object> doc = new HashMap<>(((IndexRequest) previous).sourceAsMap());
+                doc.putAll(update.doc().sourceAsMap());
+                return new IndexRequest(update.index(), update.type(), update.id()).source(doc);
+            }
+            UpdateRequest previousUpdate = (UpdateRequest) previous;
+            Map<String, Object> doc = new HashMap<>(previousUpdate.doc().sourceAsMap());
+            doc.putAll(update.doc().sourceAsMap());
+            UpdateRequest merged = new UpdateRequest(update.index(), update.type(), update.id()).doc(doc);
+            if (update.upsertRequest() != null) {
+                merged.upsert(update.upsertRequest().sourceAsMap());
+            } else if (previousUpdate.upsertRequest() != null) {
+                Map<String, Object> upsert = new HashMap<>(previousUpdate.upsertRequest().sourceAsMap());
+                upsert.putAll(update.doc().sourceAsMap());
+                merged.upsert(upsert);
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * 缓冲中的写入请求及其binlog位点，合并后取最后一次变更的位点
+     * 部分更新同时保存整行upsert，文档不存在时改为提交整行
+     */
+    public static class BufferedWrite {
+        private final DocWriteRequest request;
+        private final DocWriteRequest fallback;
+        private final String position;
+
+        BufferedWrite(DocWriteRequest request, DocWriteRequest fallback, String position) {
+            this.request = request;
+            this.fallback = fallback;
+            this.position = position;
+        }
+
+        DocWriteRequest getRequest() {
+            return request;
+        }
+
+        DocWriteRequest getFallback() {
+            return fallback;
+        }
+
+        String getPosition() {
+            return position;
+        }
+    }
+}
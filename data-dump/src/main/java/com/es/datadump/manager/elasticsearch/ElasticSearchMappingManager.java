@@ -0,0 +1,62 @@
+package com.es.datadump.manager.elasticsearch;
+
+import com.es.datadump.converter.ddl.DdlMappingParser;
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import com.es.stone.manager.ElasticSearchDumpManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * 按DDL维护ES mapping
+ * 表新增列时一次put-mapping显式加上全部新字段，避免新字段的首批文档逐个触发动态mapping、反复更新集群状态。
+ * 在解析DDL的任务中同步执行，分派线程按binlog顺序等待该任务，因此mapping总在新结构的行写入之前更新。
+ *
+ * @author yiheni
+ */
+public class ElasticSearchMappingManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(ElasticSearchMappingManager.class);
+
+    @Autowired
+    private ElasticSearchDumpManager elasticSearchDumpManager;
+
+    @Autowired
+    private DumpMetricsManager dumpMetricsManager;
+
+    @Value("${dump.ddl.put-mapping:true}")
+    private boolean putMappingEnabled;
+
+    /**
+     * 解析DDL并更新索引mapping，失败只记录日志，新字段退回动态mapping
+     *
+     * @param index schema.table
+     * @param sql
+     */
+    public void applyDdl(String index, String sql) {
+        if (!putMappingEnabled) {
+            return;
+        }
+        DdlMappingParser.Result result = DdlMappingParser.parse(sql);
+        if (!result.getRetypedColumns().isEmpty()) {
+            logger.warn("表字段类型变更，ES已有字段的类型无法在线修改，如需生效请重建索引, index: {}, columns: {}",
+                    index, result.getRetypedColumns());
+        }
+        if (result.getProperties().isEmpty()) {
+            return;
+        }
+        try {
+            if (!elasticSearchDumpManager.isExistsIndex(index)) {
+                //索引尚未创建，首次写入时按动态mapping创建
+                return;
+            }
+            boolean acknowledged = elasticSearchDumpManager.putMapping(index, result.getProperties());
+            logger.info("按DDL更新ES mapping, index: {}, fields: {}, acknowledged: {}",
+                    index, result.getProperties().keySet(), acknowledged);
+        } catch (Exception e) {
+            dumpMetricsManager.recordEsError("put_mapping", 1);
+            logger.error("按DDL更新ES mapping失败, index: {}, sql: {}", index, sql, e);
+        }
+    }
+}
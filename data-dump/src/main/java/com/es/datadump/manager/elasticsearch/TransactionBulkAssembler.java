@@ -0,0 +1,121 @@
+package com.es.datadump.manager.elasticsearch;
+
+import com.es.datadump.manager.elasticsearch.ElasticSearchBulkManager.BufferedWrite;
+import org.elasticsearch.action.DocWriteRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按事务边界组装批量单元
+ * 完整事务依次并入当前单元，放不下时先封存当前单元；
+ * 单个事务超过条数或字节上限时，先封存之前的单元，再按上限切块，每块单独成为一个单元。
+ * 每个canal批次使用一个实例，只在单个destination的分派线程中使用，非线程安全。
+ *
+ * @author yiheni
+ */
+public class TransactionBulkAssembler {
+
+    private final int maxActions;
+    private final long maxBytes;
+
+    private final List<List<BufferedWrite>> units = new ArrayList<>();
+    private List<BufferedWrite> unit = new ArrayList<>();
+    private long unitBytes;
+    private List<BufferedWrite> transaction = new ArrayList<>();
+    private long transactionBytes;
+    private boolean transactionSplit;
+    private int transactions;
+    private int splitTransactions;
+
+    public TransactionBulkAssembler(int maxActions, long maxBytes) {
+        this.maxActions = Math.max(1, maxActions);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 加入当前事务的一条写入请求
+     *
+     * @param request
+     * @param fallback 部分更新对应的整行upsert，可为空
+     * @param position
+     */
+    public void add(DocWriteRequest request, DocWriteRequest fallback, String position) {
+        transaction.add(new BufferedWrite(request, fallback, position));
+        transactionBytes += ElasticSearchBulkManager.sizeOf(request);
+        if (transaction.size() >= maxActions || transactionBytes >= maxBytes) {
+            //超大事务：之前合并的小事务先成一个单元，已积攒的部分切成一块
+            sealUnit();
+            units.add(transaction);
+            transaction = new ArrayList<>();
+            transactionBytes = 0L;
+            transactionSplit = true;
+        }
+    }
+
+    /**
+     * 当前事务结束，并入当前单元
+     */
+    public void endTransaction() {
+        transactions++;
+        if (transactionSplit) {
+            splitTransactions++;
+            transactionSplit = false;
+        }
+        mergeTransaction();
+    }
+
+    /**
+     * canal批次结束，未结束的事务（跨批次的事务前半部分）也一并封存，
+     * 批次的写入不依赖后续批次，确认窗口不会互相等待
+     *
+     * @return 按binlog顺序排列的批量单元
+     */
+    public List<List<BufferedWrite>> finish() {
+        mergeTransaction();
+        sealUnit();
+        List<List<BufferedWrite>> result = new ArrayList<>(units);
+        units.clear();
+        return result;
+    }
+
+    /**
+     * 已结束的事务数
+     *
+     * @return
+     */
+    public int getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * 因超过上限被拆分的事务数
+     *
+     * @return
+     */
+    public int getSplitTransactions() {
+        return splitTransactions;
+    }
+
+    private void mergeTransaction() {
+        if (transaction.isEmpty()) {
+            return;
+        }
+        if (unit.size() + transaction.size() > maxActions || unitBytes + transactionBytes > maxBytes) {
+            sealUnit();
+        }
+        unit.addAll(transaction);
+        unitBytes += transactionBytes;
+        transaction = new ArrayList<>();
+        transactionBytes = 0L;
+    }
+
+    private void sealUnit() {
+        if (unit.isEmpty()) {
+            return;
+        }
+        units.add(unit);
+        unit = new ArrayList<>();
+        unitBytes = 0L;
+    }
+}
@@ -0,0 +1,200 @@
+package com.es.datadump.manager.executor;
+
+import com.es.datadump.enums.DumpRejectedPolicy;
+import com.es.datadump.manager.metrics.DumpMetricsManager;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 同步链路线程池管理
+ * 线程池随进程常驻，大小、队列长度与拒绝策略由application.yml配置，
+ * 热路径上只提交任务，不再创建、销毁线程。
+ *
+ * @author yiheni
+ */
+public class DumpExecutorManager implements MeterBinder {
+
+    private final static Logger logger = LoggerFactory.getLogger(DumpExecutorManager.class);
+
+    /**
+     * 解析canal entry的线程池名称
+     */
+    public final static String ENTRY_EXECUTOR = "entry";
+
+    /**
+     * 转换字段的线程池名称
+     */
+    public final static String TRANSFORM_EXECUTOR = "transform";
+
+    @Value("${dump.executor.entry.pool-size:5}")
+    private int entryPoolSize;
+
+    @Value("${dump.executor.entry.queue-capacity:1024}")
+    private int entryQueueCapacity;
+
+    /**
+     * 转换字段的线程数，小于等于0时不单独建池，由解析线程接着转换
+     */
+    @Value("${dump.executor.transform.pool-size:0}")
+    private int transformPoolSize;
+
+    @Value("${dump.executor.transform.queue-capacity:1024}")
+    private int transformQueueCapacity;
+
+    @Value("${dump.executor.rejected-policy:CALLER_RUNS}")
+    private String rejectedPolicy;
+
+    @Value("${dump.executor.await-termination-seconds:30}")
+    private long awaitTerminationSeconds;
+
+    private final Map<String, ThreadPoolExecutor> executors = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> rejectedCounts = new LinkedHashMap<>();
+    private volatile MeterRegistry meterRegistry;
+
+    /**
+     * 初始化常驻线程池，由spring init-method调用
+     */
+    public void init() {
+        newExecutor(ENTRY_EXECUTOR, entryPoolSize, entryQueueCapacity);
+        if (transformPoolSize > 0) {
+            newExecutor(TRANSFORM_EXECUTOR, transformPoolSize, transformQueueCapacity);
+        }
+    }
+
+    /**
+     * 创建并登记一个命名线程池，登记后统一暴露监控指标、统一关闭
+     *
+     * @param name
+     * @param poolSize
+     * @param queueCapacity
+     * @return
+     */
+    public ThreadPoolExecutor newExecutor(String name, int poolSize, int queueCapacity) {
+        DumpRejectedPolicy policy = DumpRejectedPolicy.getByDesc(rejectedPolicy);
+        if (policy == null) {
+            logger.warn("未知的线程池拒绝策略：{}，使用CALLER_RUNS", rejectedPolicy);
+            policy = DumpRejectedPolicy.CALLER_RUNS;
+        }
+        return newExecutor(name, poolSize, queueCapacity, policy);
+    }
+
+    /**
+     * 创建并登记一个使用指定拒绝策略的命名线程池
+     *
+     * @param name
+     * @param poolSize
+     * @param queueCapacity
+     * @param policy
+     * @return
+     */
+    public synchronized ThreadPoolExecutor newExecutor(String name, int poolSize, int queueCapacity, DumpRejectedPolicy policy) {
+        if (executors.containsKey(name)) {
+            throw new IllegalStateException("线程池重复创建：" + name);
+        }
+        AtomicLong rejectedCount = new AtomicLong();
+        RejectedExecutionHandler delegate = policy.toHandler();
+        RejectedExecutionHandler handler = (r, executor) -> {
+            rejectedCount.incrementAndGet();
+            delegate.rejectedExecution(r, executor);
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new DumpThreadFactory(name), handler);
+        executor.prestartAllCoreThreads();
+        executors.put(name, executor);
+        rejectedCounts.put(name, rejectedCount);
+        if (meterRegistry != null) {
+            bindExecutor(meterRegistry, name, executor, rejectedCount);
+        }
+        logger.info("同步线程池[{}]初始化完成, poolSize: {}, queueCapacity: {}, rejectedPolicy: {}",
+                name, poolSize, queueCapacity, policy.getDesc());
+        return executor;
+    }
+
+    public ThreadPoolExecutor getEntryExecutor() {
+        return getExecutor(ENTRY_EXECUTOR);
+    }
+
+    /**
+     * 转换字段的线程池，未配置时返回null
+     *
+     * @return
+     */
+    public ThreadPoolExecutor getTransformExecutor() {
+        return getExecutor(TRANSFORM_EXECUTOR);
+    }
+
+    public synchronized ThreadPoolExecutor getExecutor(String name) {
+        return executors.get(name);
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        for (Map.Entry<String, ThreadPoolExecutor> entry : executors.entrySet()) {
+            bindExecutor(registry, entry.getKey(), entry.getValue(), rejectedCounts.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * 暴露线程数、活跃数、排队数、剩余队列容量、完成数与拒绝数，用于观察线程池饱和度；
+     * 队列占用率按线程池名称作为链路阶段暴露，与预取队列、确认窗口等阶段统一比较，定位瓶颈阶段
+     */
+    private void bindExecutor(MeterRegistry registry, String name, ThreadPoolExecutor executor, AtomicLong rejectedCount) {
+        Iterable<Tag> tags = Tags.of("pool", name);
+        new ExecutorServiceMetrics(executor, "dump." + name, tags).bindTo(registry);
+        FunctionCounter.builder("dump.executor.rejected", rejectedCount, AtomicLong::doubleValue)
+                .tags(tags)
+                .description("线程池拒绝提交次数")
+                .register(registry);
+        Gauge.builder(DumpMetricsManager.PIPELINE_OCCUPANCY, executor, DumpExecutorManager::occupancyOf)
+                .tag("stage", name)
+                .tag("destination", DumpMetricsManager.ALL_DESTINATIONS)
+                .description("链路阶段的队列占用率，0到1")
+                .register(registry);
+    }
+
+    private static double occupancyOf(ThreadPoolExecutor executor) {
+        int queued = executor.getQueue().size();
+        int capacity = queued + executor.getQueue().remainingCapacity();
+        return capacity == 0 ? 0D : (double) queued / capacity;
+    }
+
+    /**
+     * 关闭全部线程池，由spring destroy-method调用
+     * 最多等待await-termination-seconds，超时强制中断，避免进程无法退出
+     */
+    public synchronized void destroy() {
+        for (ThreadPoolExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(awaitTerminationSeconds);
+        for (Map.Entry<String, ThreadPoolExecutor> entry : executors.entrySet()) {
+            try {
+                long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+                if (!entry.getValue().awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    logger.warn("同步线程池[{}]关闭超时，强制中断，剩余任务数: {}",
+                            entry.getKey(), entry.getValue().shutdownNow().size());
+                }
+            } catch (InterruptedException e) {
+                entry.getValue().shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.es.datadump.manager.executor;
+
+import com.es.datadump.enums.DumpRejectedPolicy;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 按主键分通道的写入调度器
+ * 每个通道只有一个消费线程，同一索引下同一es_key的变更总是落到同一通道，
+ * 因此同一文档的变更按binlog顺序写入ES，不同文档之间在各通道上并行。
+ *
+ * @author yiheni
+ */
+public class DumpLaneScheduler implements MeterBinder {
+
+    private final static Logger logger = LoggerFactory.getLogger(DumpLaneScheduler.class);
+    private final static String LANE_PREFIX = "lane-";
+
+    @Autowired
+    private DumpExecutorManager dumpExecutorManager;
+
+    /**
+     * 通道数，小于等于0时取CPU核数
+     */
+    @Value("${dump.lane.count:0}")
+    private int laneCount;
+
+    @Value("${dump.lane.queue-capacity:2048}")
+    private int laneQueueCapacity;
+
+    private ThreadPoolExecutor[] lanes;
+    private AtomicLong[] dispatchedCounts;
+
+    /**
+     * 初始化通道，由spring init-method调用
+     */
+    public void init() {
+        if (laneCount <= 0) {
+            laneCount = Runtime.getRuntime().availableProcessors();
+        }
+        lanes = new ThreadPoolExecutor[laneCount];
+        dispatchedCounts = new AtomicLong[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            //通道内必须保证顺序，队列满时只能阻塞分派线程，不能由调用方代为执行
+            lanes[i] = dumpExecutorManager.newExecutor(LANE_PREFIX + i, 1, laneQueueCapacity, DumpRejectedPolicy.BLOCK);
+            dispatchedCounts[i] = new AtomicLong();
+        }
+        logger.info("同步通道初始化完成, laneCount: {}, queueCapacity: {}", laneCount, laneQueueCapacity);
+    }
+
+    /**
+     * 计算文档所属通道
+     *
+     * @param index
+     * @param esKey
+     * @return
+     */
+    public int laneOf(String index, String esKey) {
+        int h = 31 * index.hashCode() + (esKey == null ? 0 : esKey.hashCode());
+        //高位参与运算，避免连续主键集中在少数通道
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    /**
+     * 提交任务到指定通道，通道队列满时阻塞调用方
+     *
+     * @param lane
+     * @param task
+     * @return
+     */
+    public CompletableFuture<Void> submit(int lane, Runnable task) {
+        dispatchedCounts[lane].incrementAndGet();
+        return CompletableFuture.runAsync(task, lanes[lane]);
+    }
+
+    /**
+     * 提交有返回值的任务到指定通道，通道队列满时阻塞调用方
+     *
+     * @param lane
+     * @param task
+     * @return
+     */
+    public <T> CompletableFuture<T> supply(int lane, Supplier<T> task) {
+        dispatchedCounts[lane].incrementAndGet();
+        return CompletableFuture.supplyAsync(task, lanes[lane]);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * 暴露每个通道的排队深度与累计分派数，用于定位热点主键
+     *
+     * @param registry
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (int i = 0; i < lanes.length; i++) {
+            ThreadPoolExecutor lane = lanes[i];
+            Gauge.builder("dump.lane.queue.depth", lane, e -> e.getQueue().size())
+                    .tag("lane", String.valueOf(i))
+                    .description("通道排队中的写入任务数")
+                    .register(registry);
+            FunctionCounter.builder("dump.lane.dispatched", dispatchedCounts[i], AtomicLong::doubleValue)
+                    .tag("lane", String.valueOf(i))
+                    .description("通道累计分派的写入任务数")
+                    .register(registry);
+        }
+    }
+}
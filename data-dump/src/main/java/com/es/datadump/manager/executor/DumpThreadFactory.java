@@ -0,0 +1,32 @@
+package com.es.datadump.manager.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 同步线程工厂，线程按 dump-{name}-{序号} 命名，便于jstack排查
+ *
+ * @author yiheni
+ */
+public class DumpThreadFactory implements ThreadFactory {
+
+    private final static Logger logger = LoggerFactory.getLogger(DumpThreadFactory.class);
+
+    private final String prefix;
+    private final AtomicInteger sequence = new AtomicInteger(1);
+
+    public DumpThreadFactory(String name) {
+        this.prefix = "dump-" + name + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + sequence.getAndIncrement());
+        thread.setDaemon(false);
+        thread.setUncaughtExceptionHandler((t, e) -> logger.error("同步线程{}异常退出", t.getName(), e));
+        return thread;
+    }
+}
@@ -0,0 +1,219 @@
+package com.es.datadump.manager.log;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Entry;
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+import com.alibaba.otter.canal.protocol.CanalEntry.Header;
+import com.es.datadump.enums.BinlogLogLevel;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * binlog事件日志
+ * 以key=value的结构化格式写入独立的logger，由logback-spring.xml中有界、不阻塞的异步appender落盘。
+ * 默认只记录批次摘要与异常；行变更、事务边界按表配置的详细程度和采样率记录。
+ *
+ * @author yiheni
+ */
+public class BinlogEventLogManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(BinlogEventLogManager.class);
+    /**
+     * 事件日志专用logger，在logback-spring.xml中路由到异步appender
+     */
+    private final static Logger eventLogger = LoggerFactory.getLogger("com.es.datadump.binlog");
+
+    @Value("${dump.event-log.level:SUMMARY}")
+    private String level;
+
+    /**
+     * SAMPLED级别下行变更的采样率，0~1
+     */
+    @Value("${dump.event-log.sample-rate:0.01}")
+    private double sampleRate;
+
+    /**
+     * 延迟超过此值的批次、行变更按异常记录
+     */
+    @Value("${dump.event-log.lag-threshold-ms:5000}")
+    private long lagThresholdMs;
+
+    /**
+     * 行变更延迟告警的最小间隔，每个destination在间隔内只记一条，期间被抑制的条数随下一条告警输出
+     */
+    @Value("${dump.event-log.lag-warn-interval-ms:10000}")
+    private long lagWarnIntervalMs;
+
+    /**
+     * 按表覆盖详细程度，格式：schema.table:LEVEL,schema.table:LEVEL
+     */
+    @Value("${dump.event-log.tables:}")
+    private String tables;
+
+    private BinlogLogLevel defaultLevel;
+    private final Map<String, BinlogLogLevel> tableLevels = new HashMap<>();
+    private final Map<String, LagWarnLimiter> lagWarnLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * 解析配置，由spring init-method调用
+     */
+    public void init() {
+        defaultLevel = parseLevel(level);
+        String[] tableConfigs = StringUtils.isBlank(tables) ? new String[0] : StringUtils.split(tables, ',');
+        for (String table : tableConfigs) {
+            String[] pair = StringUtils.split(table.trim(), ':');
+            if (pair.length != 2) {
+                logger.warn("binlog事件日志表级配置格式错误，已忽略: {}", table);
+                continue;
+            }
+            tableLevels.put(pair[0].trim(), parseLevel(pair[1].trim()));
+        }
+        logger.info("binlog事件日志初始化完成, level: {}, sampleRate: {}, tables: {}", defaultLevel, sampleRate, tableLevels);
+    }
+
+    /**
+     * 批次摘要，始终记录；批次最后一条binlog延迟超限时按WARN记录
+     *
+     * @param destination
+     * @param batchId
+     * @param first
+     * @param last
+     * @param size
+     * @param memSize
+     */
+    public void batch(String destination, long batchId, Entry first, Entry last, int size, long memSize) {
+        long lagMs = System.currentTimeMillis() - last.getHeader().getExecuteTime();
+        if (lagMs > lagThresholdMs) {
+            eventLogger.warn("event=batch destination={} batchId={} entries={} memSize={} start={} end={} lagMs={} anomaly=lag",
+                    destination, batchId, size, memSize, position(first.getHeader()), position(last.getHeader()), lagMs);
+        } else if (eventLogger.isInfoEnabled()) {
+            eventLogger.info("event=batch destination={} batchId={} entries={} memSize={} start={} end={} lagMs={}",
+                    destination, batchId, size, memSize, position(first.getHeader()), position(last.getHeader()), lagMs);
+        }
+    }
+
+    /**
+     * 事务边界
+     *
+     * @param destination
+     * @param entry
+     * @param boundary    BEGIN / END
+     * @param id          BEGIN为执行线程id，END为事务id
+     */
+    public void transaction(String destination, Entry entry, String boundary, String id) {
+        Header header = entry.getHeader();
+        if (!shouldLogDetail(header.getSchemaName() + "." + header.getTableName()) || !eventLogger.isInfoEnabled()) {
+            return;
+        }
+        eventLogger.info("event=transaction destination={} boundary={} id={} binlog={} executeTime={} delayMs={}",
+                destination, boundary, id, position(header), header.getExecuteTime(),
+                System.currentTimeMillis() - header.getExecuteTime());
+    }
+
+    /**
+     * 行变更，按表的详细程度与采样率记录；延迟超限时按WARN记录，每个destination按lagWarnIntervalMs限频，
+     * 追赶积压时每行都超限，不限频会淹没日志与异步appender的队列
+     *
+     * @param destination
+     * @param entry
+     * @param table       schema.table
+     * @param eventType
+     * @param rows
+     */
+    public void rowChange(String destination, Entry entry, String table, EventType eventType, int rows) {
+        Header header = entry.getHeader();
+        long now = System.currentTimeMillis();
+        long delayMs = now - header.getExecuteTime();
+        long suppressed = delayMs > lagThresholdMs ? tryLagWarn(destination, now) : -1L;
+        if (suppressed >= 0) {
+            eventLogger.warn("event=row destination={} table={} type={} rows={} binlog={} executeTime={} delayMs={} suppressed={} anomaly=lag",
+                    destination, table, eventType, rows, position(header), header.getExecuteTime(), delayMs, suppressed);
+        } else if (shouldLogDetail(table) && eventLogger.isInfoEnabled()) {
+            eventLogger.info("event=row destination={} table={} type={} rows={} binlog={} executeTime={} delayMs={}",
+                    destination, table, eventType, rows, position(header), header.getExecuteTime(), delayMs);
+        }
+    }
+
+    /**
+     * DDL或QUERY语句，数量少且影响表结构，始终记录
+     *
+     * @param destination
+     * @param entry
+     * @param table
+     * @param sql
+     */
+    public void ddl(String destination, Entry entry, String table, String sql) {
+        eventLogger.info("event=ddl destination={} table={} binlog={} sql={}",
+                destination, table, position(entry.getHeader()), sql);
+    }
+
+    /**
+     * binlog解析失败，始终记录
+     *
+     * @param destination
+     * @param entry
+     * @param e
+     */
+    public void parseError(String destination, Entry entry, Throwable e) {
+        Header header = entry.getHeader();
+        eventLogger.error("event=parse_error destination={} table={}.{} entryType={} binlog={} anomaly=parse",
+                destination, header.getSchemaName(), header.getTableName(), entry.getEntryType(), position(header), e);
+    }
+
+    /**
+     * 判断destination本次延迟告警能否输出
+     *
+     * @param destination
+     * @param now
+     * @return 可以输出时返回上次输出以来被抑制的告警数，否则返回-1并计入抑制数
+     */
+    long tryLagWarn(String destination, long now) {
+        return lagWarnLimiters.computeIfAbsent(destination, key -> new LagWarnLimiter()).tryAcquire(now, lagWarnIntervalMs);
+    }
+
+    private boolean shouldLogDetail(String table) {
+        BinlogLogLevel tableLevel = tableLevels.getOrDefault(table, defaultLevel);
+        if (tableLevel == BinlogLogLevel.ROW) {
+            return true;
+        }
+        return tableLevel == BinlogLogLevel.SAMPLED && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private String position(Header header) {
+        return header.getLogfileName() + ":" + header.getLogfileOffset() + "(" + Instant.ofEpochMilli(header.getExecuteTime()) + ")";
+    }
+
+    private BinlogLogLevel parseLevel(String desc) {
+        BinlogLogLevel parsed = BinlogLogLevel.getByDesc(desc);
+        if (parsed == null) {
+            logger.warn("未知的binlog事件日志级别: {}，使用SUMMARY", desc);
+            return BinlogLogLevel.SUMMARY;
+        }
+        return parsed;
+    }
+
+    /**
+     * 单个destination的延迟告警限频，行变更由多个解析线程并发记录
+     */
+    private static class LagWarnLimiter {
+        private final AtomicLong lastWarnTime = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong suppressed = new AtomicLong();
+
+        long tryAcquire(long now, long intervalMs) {
+            long last = lastWarnTime.get();
+            if ((last == Long.MIN_VALUE || now - last >= intervalMs) && lastWarnTime.compareAndSet(last, now)) {
+                return suppressed.getAndSet(0L);
+            }
+            suppressed.incrementAndGet();
+            return -1L;
+        }
+    }
+}
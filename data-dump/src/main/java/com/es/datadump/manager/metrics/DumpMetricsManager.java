@@ -0,0 +1,241 @@
+package com.es.datadump.manager.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同步链路监控指标
+ * 通过Micrometer注册，由actuator暴露为prometheus抓取端点，同时导出到JMX。
+ * 指标按标签缓存，热路径上只做一次map查找，不重复构造Meter。
+ *
+ * @author yiheni
+ */
+public class DumpMetricsManager {
+
+    /**
+     * 解析阶段：RowChange.parseFrom
+     */
+    public final static String STAGE_PARSE = "parse";
+    /**
+     * 转换阶段：字段解析、组装文档
+     */
+    public final static String STAGE_TRANSFORM = "transform";
+    /**
+     * 写入阶段：批量提交ES
+     */
+    public final static String STAGE_ES_WRITE = "es_write";
+    /**
+     * 链路各阶段队列占用率，按stage标签区分：
+     * fetch预取队列、entry解析线程池、transform转换线程池、lane-N写入通道、es在途批量请求、ack确认窗口；
+     * 同一指标名下标签键必须一致，各destination共享的阶段destination标签取ALL_DESTINATIONS
+     */
+    public final static String PIPELINE_OCCUPANCY = "dump.pipeline.occupancy";
+    /**
+     * 各destination共享的阶段使用的destination标签值
+     */
+    public final static String ALL_DESTINATIONS = "all";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Timer> lagTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rowCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> esErrorCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> coalescedCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> filteredCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> partialFallbackCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> staleWriteCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> sequenceRegressionCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> transactionCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> splitTransactionCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> bulkUnitCounters = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> batchEntrySummaries = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> batchByteSummaries = new ConcurrentHashMap<>();
+
+    /**
+     * 记录端到端延迟：binlog执行时间到写入ES完成
+     *
+     * @param destination
+     * @param table       schema.table
+     * @param lagMs
+     */
+    public void recordLag(String destination, String table, long lagMs) {
+        lagTimers.computeIfAbsent(destination + '|' + table, k -> Timer.builder("dump.lag")
+                .tags("destination", destination, "table", table)
+                .description("binlog执行到写入ES完成的端到端延迟")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(10))
+                .maximumExpectedValue(Duration.ofHours(1))
+                .register(meterRegistry))
+                .record(Math.max(0L, lagMs), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录同步行数，按事件类型区分
+     *
+     * @param destination
+     * @param table
+     * @param eventType
+     * @param rows
+     */
+    public void recordRows(String destination, String table, String eventType, int rows) {
+        rowCounters.computeIfAbsent(destination + '|' + table + '|' + eventType, k -> Counter.builder("dump.rows")
+                .tags("destination", destination, "table", table, "event_type", eventType)
+                .description("同步的binlog行数")
+                .register(meterRegistry))
+                .increment(rows);
+    }
+
+    /**
+     * 记录canal批次的entry数与binlog字节数
+     *
+     * @param destination
+     * @param entries
+     * @param memSize
+     */
+    public void recordBatch(String destination, int entries, long memSize) {
+        batchEntrySummaries.computeIfAbsent(destination, k -> DistributionSummary.builder("dump.canal.batch.entries")
+                .tags("destination", destination)
+                .description("canal批次entry数")
+                .register(meterRegistry))
+                .record(entries);
+        batchByteSummaries.computeIfAbsent(destination, k -> DistributionSummary.builder("dump.canal.batch.bytes")
+                .tags("destination", destination)
+                .baseUnit("bytes")
+                .description("canal批次binlog字节数")
+                .register(meterRegistry))
+                .record(memSize);
+    }
+
+    /**
+     * 记录按表过滤、未解析的entry数
+     *
+     * @param destination
+     * @param entries
+     */
+    public void recordFiltered(String destination, int entries) {
+        filteredCounters.computeIfAbsent(destination, k -> Counter.builder("dump.filtered.entries")
+                .tags("destination", destination)
+                .description("按表过滤规则跳过解析的entry数")
+                .register(meterRegistry))
+                .increment(entries);
+    }
+
+    /**
+     * 记录阶段耗时
+     *
+     * @param stage
+     * @param startNanos System.nanoTime()的起点
+     */
+    public void recordStage(String stage, long startNanos) {
+        stageTimers.computeIfAbsent(stage, k -> Timer.builder("dump.stage")
+                .tags("stage", stage)
+                .description("同步各阶段耗时")
+                .register(meterRegistry))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录ES写入错误
+     *
+     * @param reason 失败原因，如HTTP状态或异常类型
+     * @param count
+     */
+    public void recordEsError(String reason, int count) {
+        esErrorCounters.computeIfAbsent(reason, k -> Counter.builder("dump.es.errors")
+                .tags("reason", reason)
+                .description("ES写入失败次数")
+                .register(meterRegistry))
+                .increment(count);
+    }
+
+    /**
+     * 记录合并掉的写入数：同一文档在缓冲内的多次变更合并为一次写入
+     *
+     * @param index
+     * @param count
+     */
+    public void recordCoalesced(String index, int count) {
+        coalescedCounters.computeIfAbsent(index, k -> Counter.builder("dump.bulk.coalesced")
+                .tags("table", index)
+                .description("合并节省的ES写入次数")
+                .register(meterRegistry))
+                .increment(count);
+    }
+
+    /**
+     * 记录因外部版本号冲突被跳过的过期写入：ES中已是更新位点的数据
+     *
+     * @param index
+     * @param count
+     */
+    public void recordStaleWrite(String index, int count) {
+        staleWriteCounters.computeIfAbsent(index, k -> Counter.builder("dump.es.stale.skipped")
+                .tags("table", index)
+                .description("版本号落后被ES拒绝而跳过的写入数")
+                .register(meterRegistry))
+                .increment(count);
+    }
+
+    /**
+     * 记录部分更新因文档不存在改为整行upsert的次数
+     *
+     * @param index
+     * @param count
+     */
+    public void recordPartialFallback(String index, int count) {
+        partialFallbackCounters.computeIfAbsent(index, k -> Counter.builder("dump.bulk.partial.fallback")
+                .tags("table", index)
+                .description("部分更新文档不存在、改为整行写入的次数")
+                .register(meterRegistry))
+                .increment(count);
+    }
+
+    /**
+     * 记录binlog文件序号回退，开启外部版本号时需要告警并人工处理
+     *
+     * @param destination
+     */
+    public void recordSequenceRegression(String destination) {
+        sequenceRegressionCounters.computeIfAbsent(destination, k -> Counter.builder("dump.binlog.sequence.regression")
+                .tags("destination", destination)
+                .description("binlog文件序号回退、外部版本号失效而停止写入的次数")
+                .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录按事务组装的批次：事务数、被拆分的超大事务数、组装出的批量单元数
+     *
+     * @param destination
+     * @param transactions
+     * @param splitTransactions
+     * @param units
+     */
+    public void recordTransactionBatch(String destination, int transactions, int splitTransactions, int units) {
+        transactionCounters.computeIfAbsent(destination, k -> Counter.builder("dump.transactions")
+                .tags("destination", destination)
+                .description("按事务组装写入的MySQL事务数")
+                .register(meterRegistry))
+                .increment(transactions);
+        splitTransactionCounters.computeIfAbsent(destination, k -> Counter.builder("dump.transactions.split")
+                .tags("destination", destination)
+                .description("超过批量上限被拆分写入的事务数")
+                .register(meterRegistry))
+                .increment(splitTransactions);
+        bulkUnitCounters.computeIfAbsent(destination, k -> Counter.builder("dump.bulk.units")
+                .tags("destination", destination)
+                .description("按事务组装的批量请求数")
+                .register(meterRegistry))
+                .increment(units);
+    }
+}
@@ -0,0 +1,453 @@
+package com.es.datadump.manager.spool;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 本地磁盘spool：转换与写入ES之间的追加写队列
+ * 由固定大小的内存映射段文件组成，记录格式为 [长度][CRC32][写入时间][内容]。
+ * 分派线程追加批次的写入请求并force落盘后即可ack canal；排空线程按顺序读出写入ES，
+ * 写入成功后推进检查点，检查点之前的段文件删除。段文件总大小超过上限时追加阻塞，形成反压。
+ * 两端离开一个段时立即解除映射，删除的段文件随即释放磁盘空间，不等GC回收映射。
+ * 写入端只由分派线程访问，读取端只由排空线程访问，两端共享的位置信息受this保护。
+ *
+ * @author yiheni
+ */
+public class DumpSpool {
+
+    private final static Logger logger = LoggerFactory.getLogger(DumpSpool.class);
+    private final static String SEGMENT_SUFFIX = ".seg";
+    private final static String CHECKPOINT_FILE = "checkpoint";
+    /**
+     * 记录头：长度、CRC32、写入时间
+     */
+    private final static int RECORD_HEADER_BYTES = 4 + 4 + 8;
+    /**
+     * 磁盘达到上限时单次等待的时间
+     */
+    private final static long DISK_WAIT_MS = 1000L;
+
+    private final File dir;
+    private final int segmentBytes;
+    private final long maxDiskBytes;
+
+    /**
+     * 写入端
+     */
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private long appendedBytes;
+    private long appendedOldest;
+
+    /**
+     * 读取端
+     */
+    private long readSegment;
+    private int readOffset;
+    private MappedByteBuffer readBuffer;
+    private long readBytes;
+
+    /**
+     * 共享位置
+     */
+    private long committedSegment;
+    private int committedOffset;
+    private long checkpointSegment;
+    private int checkpointOffset;
+    private long firstSegment;
+    private long pendingBytes;
+    private long oldestTimestamp;
+    private FileChannel checkpointChannel;
+    private volatile boolean closed;
+
+    public DumpSpool(File dir, int segmentBytes, long maxDiskBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        //至少容纳写入段、读取段与滚动中的新段
+        this.maxDiskBytes = Math.max(maxDiskBytes, 4L * segmentBytes);
+    }
+
+    /**
+     * 打开spool，从检查点向后扫描恢复写入位置与积压量
+     * 校验失败的记录视为崩溃时未写完，之后的内容清零覆盖，对应批次未ack，由canal重新投递
+     *
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建spool目录失败: " + dir);
+        }
+        checkpointChannel = FileChannel.open(new File(dir, CHECKPOINT_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        List<Long> segments = listSegments();
+        if (checkpointChannel.size() >= 12) {
+            ByteBuffer checkpoint = ByteBuffer.allocate(12);
+            checkpointChannel.read(checkpoint, 0);
+            checkpoint.flip();
+            checkpointSegment = checkpoint.getLong();
+            checkpointOffset = checkpoint.getInt();
+        } else {
+            checkpointSegment = segments.isEmpty() ? 0L : segments.get(0);
+            checkpointOffset = 0;
+        }
+        for (Long segment : segments) {
+            if (segment < checkpointSegment) {
+                deleteSegment(segment);
+            }
+        }
+
+        long lastSegment = segments.isEmpty() ? checkpointSegment : Math.max(checkpointSegment, segments.get(segments.size() - 1));
+        pendingBytes = 0L;
+        oldestTimestamp = 0L;
+        for (long segment = checkpointSegment; segment <= lastSegment; segment++) {
+            MappedByteBuffer buffer = map(segment);
+            int position = segment == checkpointSegment ? checkpointOffset : 0;
+            int next;
+            while ((next = validRecordEnd(buffer, position)) > 0) {
+                if (oldestTimestamp == 0L) {
+                    oldestTimestamp = buffer.getLong(position + 8);
+                }
+                pendingBytes += next - position;
+                position = next;
+            }
+            if (segment == lastSegment) {
+                for (int i = position; i < segmentBytes; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                buffer.position(position);
+                writeSegment = segment;
+                writeBuffer = buffer;
+            } else {
+                unmap(buffer);
+            }
+        }
+        committedSegment = writeSegment;
+        committedOffset = writeBuffer.position();
+        firstSegment = checkpointSegment;
+        readSegment = checkpointSegment;
+        readOffset = checkpointOffset;
+        readBuffer = map(readSegment);
+        logger.info("spool打开完成, dir: {}, checkpoint: {}:{}, write: {}:{}, pendingBytes: {}",
+                dir, checkpointSegment, checkpointOffset, writeSegment, committedOffset, pendingBytes);
+    }
+
+    /**
+     * 追加一条记录，提交前对排空线程不可见
+     * 只能在写入端线程中调用
+     *
+     * @param record
+     * @throws IOException
+     * @throws InterruptedException 等待磁盘空间时被中断
+     */
+    public void append(SpoolRecord record) throws IOException, InterruptedException {
+        byte[] body = record.encode();
+        int size = RECORD_HEADER_BYTES + body.length;
+        if (size > segmentBytes) {
+            throw new IOException("spool记录超过段大小, index: " + record.getIndex() + ", id: " + record.getId() + ", size: " + size);
+        }
+        if (writeBuffer.remaining() < size) {
+            rollSegment();
+        }
+        long now = System.currentTimeMillis();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        int position = writeBuffer.position();
+        writeBuffer.putInt(position + 4, (int) crc.getValue());
+        writeBuffer.putLong(position + 8, now);
+        writeBuffer.position(position + RECORD_HEADER_BYTES);
+        writeBuffer.put(body);
+        //长度最后写入，未写完的记录长度为0
+        writeBuffer.putInt(position, body.length);
+        appendedBytes += size;
+        if (appendedOldest == 0L) {
+            appendedOldest = now;
+        }
+    }
+
+    /**
+     * 将已追加的记录force落盘并对排空线程可见，返回后即可ack对应批次
+     * 只能在写入端线程中调用
+     */
+    public void commit() {
+        writeBuffer.force();
+        synchronized (this) {
+            committedSegment = writeSegment;
+            committedOffset = writeBuffer.position();
+            pendingBytes += appendedBytes;
+            if (oldestTimestamp == 0L) {
+                oldestTimestamp = appendedOldest;
+            }
+            appendedBytes = 0L;
+            appendedOldest = 0L;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 当前段写满，提交后滚动到新段；段文件总大小达到上限时等待排空线程释放
+     */
+    private void rollSegment() throws IOException, InterruptedException {
+        commit();
+        synchronized (this) {
+            while ((writeSegment + 2 - firstSegment) * segmentBytes > maxDiskBytes) {
+                if (closed) {
+                    throw new IOException("spool已关闭: " + dir);
+                }
+                wait(DISK_WAIT_MS);
+            }
+            writeSegment++;
+        }
+        MappedByteBuffer retired = writeBuffer;
+        writeBuffer = map(writeSegment);
+        unmap(retired);
+    }
+
+    /**
+     * 读取已提交、未读的记录，没有记录时最多等待timeoutMs
+     * 只能在读取端线程中调用
+     *
+     * @param maxRecords
+     * @param timeoutMs
+     * @return 超时返回空列表
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<SpoolRecord> poll(int maxRecords, long timeoutMs) throws IOException, InterruptedException {
+        long endSegment;
+        int endOffset;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (readSegment == committedSegment && readOffset >= committedOffset) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return Collections.emptyList();
+                }
+                wait(remaining);
+            }
+            endSegment = committedSegment;
+            endOffset = committedOffset;
+        }
+        List<SpoolRecord> records = new ArrayList<>();
+        while (records.size() < maxRecords && !(readSegment == endSegment && readOffset >= endOffset)) {
+            int length = readOffset + RECORD_HEADER_BYTES <= segmentBytes ? readBuffer.getInt(readOffset) : 0;
+            if (length <= 0) {
+                if (readSegment >= endSegment) {
+                    break;
+                }
+                //段尾，进入下一个段
+                readSegment++;
+                readOffset = 0;
+                MappedByteBuffer retired = readBuffer;
+                readBuffer = map(readSegment);
+                unmap(retired);
+                continue;
+            }
+            byte[] body = new byte[length];
+            ByteBuffer source = readBuffer.duplicate();
+            source.position(readOffset + RECORD_HEADER_BYTES);
+            source.get(body);
+            records.add(SpoolRecord.decode(body, readBuffer.getLong(readOffset + 8)));
+            readOffset += RECORD_HEADER_BYTES + length;
+            readBytes += RECORD_HEADER_BYTES + length;
+        }
+        return records;
+    }
+
+    /**
+     * 已读记录全部写入ES后推进检查点，并删除检查点之前的段文件
+     * 只能在读取端线程中调用
+     *
+     * @throws IOException
+     */
+    public void checkpoint() throws IOException {
+        ByteBuffer checkpoint = ByteBuffer.allocate(12);
+        checkpoint.putLong(readSegment).putInt(readOffset);
+        checkpoint.flip();
+        checkpointChannel.write(checkpoint, 0);
+        checkpointChannel.force(false);
+        synchronized (this) {
+            checkpointSegment = readSegment;
+            checkpointOffset = readOffset;
+            pendingBytes -= readBytes;
+            readBytes = 0L;
+            oldestTimestamp = pendingBytes > 0 ? peekTimestamp() : 0L;
+            while (firstSegment < checkpointSegment) {
+                deleteSegment(firstSegment);
+                firstSegment++;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * 写入ES失败，回到检查点重新读取
+     * 只能在读取端线程中调用
+     *
+     * @throws IOException
+     */
+    public void rewind() throws IOException {
+        synchronized (this) {
+            readSegment = checkpointSegment;
+            readOffset = checkpointOffset;
+        }
+        MappedByteBuffer retired = readBuffer;
+        readBuffer = map(readSegment);
+        unmap(retired);
+        readBytes = 0L;
+    }
+
+    /**
+     * 关闭spool，唤醒等待磁盘空间的写入端；已提交的记录保留在磁盘，重启后继续排空
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+        try {
+            checkpointChannel.close();
+        } catch (IOException e) {
+            logger.warn("关闭spool检查点文件异常, dir: {}", dir, e);
+        }
+    }
+
+    /**
+     * 暴露积压字节数、最早积压记录的等待时长与磁盘占用
+     *
+     * @param registry
+     * @param destination
+     */
+    public void bindTo(MeterRegistry registry, String destination) {
+        Gauge.builder("dump.spool.bytes", this, DumpSpool::getPendingBytes)
+                .tag("destination", destination)
+                .baseUnit("bytes")
+                .description("spool中未写入ES的字节数")
+                .register(registry);
+        Gauge.builder("dump.spool.age", this, DumpSpool::getAgeMillis)
+                .tag("destination", destination)
+                .baseUnit("milliseconds")
+                .description("spool中最早未写入ES的记录已等待的时长")
+                .register(registry);
+        Gauge.builder("dump.spool.disk.bytes", this, DumpSpool::getDiskBytes)
+                .tag("destination", destination)
+                .baseUnit("bytes")
+                .description("spool段文件占用的磁盘空间")
+                .register(registry);
+    }
+
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public synchronized long getAgeMillis() {
+        return oldestTimestamp == 0L ? 0L : System.currentTimeMillis() - oldestTimestamp;
+    }
+
+    public synchronized long getDiskBytes() {
+        return (writeSegment + 1 - firstSegment) * segmentBytes;
+    }
+
+    /**
+     * 检查点处下一条记录的写入时间；位于段尾时下一段尚未映射，按当前时间估算
+     */
+    private long peekTimestamp() {
+        if (readOffset + RECORD_HEADER_BYTES <= segmentBytes && readBuffer.getInt(readOffset) > 0) {
+            return readBuffer.getLong(readOffset + 8);
+        }
+        return System.currentTimeMillis();
+    }
+
+    private int validRecordEnd(MappedByteBuffer buffer, int position) {
+        if (position + RECORD_HEADER_BYTES > segmentBytes) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_BYTES + length > segmentBytes) {
+            return -1;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(position + RECORD_HEADER_BYTES);
+        body.limit(position + RECORD_HEADER_BYTES + length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? position + RECORD_HEADER_BYTES + length : -1;
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    /**
+     * 立即解除内存映射；映射在GC回收前一直占用已删除段文件的磁盘空间，磁盘上限会与实际占用不符。
+     * 解除后不能再访问该buffer，因此只在持有它的一端离开该段时调用
+     *
+     * @param buffer
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = null;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException ignore) {
+                //java 8没有invokeCleaner，取DirectByteBuffer的cleaner
+            }
+            if (invokeCleaner != null) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            logger.debug("解除spool段文件映射失败，等待GC回收", e);
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                segments.add(Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private void deleteSegment(long segment) {
+        File file = segmentFile(segment);
+        if (file.exists() && !file.delete()) {
+            logger.warn("删除spool段文件失败: {}", file);
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,155 @@
+package com.es.datadump.manager.spool;
+
+import com.es.datadump.manager.elasticsearch.ElasticSearchBulkManager;
+import com.es.datadump.manager.executor.DumpLaneScheduler;
+import org.elasticsearch.action.DocWriteRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * spool排空线程
+ * 按顺序读出spool中的写入请求，经写入通道合并、批量写入ES，全部成功后推进检查点；
+ * 写入失败则回到检查点，退避后重新写入，速度由ES实际承受能力决定，不影响canal消费。
+ *
+ * @author yiheni
+ */
+public class DumpSpoolDrainer {
+
+    private final static Logger logger = LoggerFactory.getLogger(DumpSpoolDrainer.class);
+    /**
+     * spool为空时单次等待的时间
+     */
+    private final static long POLL_WAIT_MS = 100L;
+    /**
+     * 超过截止时间中断后，等待排空线程退出的宽限时间
+     */
+    private final static long STOP_GRACE_MS = 1000L;
+    /**
+     * 排空线程在写入通道上使用独立的批量缓冲，与canal消费者互不影响
+     */
+    private final static String OWNER_PREFIX = "spool-";
+
+    private final String destination;
+    private final DumpSpool spool;
+    private final DumpLaneScheduler dumpLaneScheduler;
+    private final ElasticSearchBulkManager elasticSearchBulkManager;
+    private final int drainBatch;
+    private final long retryBackoffMs;
+
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    public DumpSpoolDrainer(String destination, DumpSpool spool, DumpLaneScheduler dumpLaneScheduler,
+                            ElasticSearchBulkManager elasticSearchBulkManager, int drainBatch, long retryBackoffMs) {
+        this.destination = destination;
+        this.spool = spool;
+        this.dumpLaneScheduler = dumpLaneScheduler;
+        this.elasticSearchBulkManager = elasticSearchBulkManager;
+        this.drainBatch = drainBatch;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    public void start() {
+        thread = new Thread(() -> drain(), "spool-drain-" + destination);
+        thread.setUncaughtExceptionHandler((t, e) -> logger.error("spool排空线程异常退出", e));
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * 停止排空，当前批次写完后退出；未排空的记录保留在spool中，重启后继续
+     */
+    public void stop() {
+        stop(Long.MAX_VALUE);
+    }
+
+    /**
+     * 停止排空，截止时间前等待当前批次写入ES；超时则中断，未checkpoint的记录保留在spool中，重启后重新写入
+     *
+     * @param deadline 截止时间（System.currentTimeMillis），Long.MAX_VALUE表示一直等待
+     */
+    public void stop(long deadline) {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            if (thread != null) {
+                thread.join(deadline == Long.MAX_VALUE ? 0L : Math.max(1L, deadline - System.currentTimeMillis()));
+                if (thread.isAlive()) {
+                    logger.warn("spool排空线程未在截止时间内退出，强制中断, destination: {}", destination);
+                    thread.interrupt();
+                    //阻塞在不可中断的ES请求上时不再等待，不能让停止超过截止时间
+                    thread.join(STOP_GRACE_MS);
+                    if (thread.isAlive()) {
+                        logger.warn("spool排空线程中断后仍未退出，不再等待, destination: {}", destination);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("spool排空线程join异常:", e);
+        }
+    }
+
+    private void drain() {
+        MDC.put("destination", destination);
+        try {
+            while (running) {
+                try {
+                    List<SpoolRecord> records = spool.poll(drainBatch, POLL_WAIT_MS);
+                    if (records.isEmpty()) {
+                        continue;
+                    }
+                    apply(records).get();
+                    spool.checkpoint();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.error("spool排空线程被中断", e);
+                    return;
+                } catch (Exception e) {
+                    logger.error("spool排空写入ES失败，回到检查点重试", e);
+                    retry();
+                }
+            }
+        } finally {
+            MDC.remove("destination");
+        }
+    }
+
+    /**
+     * 按es_key分派到写入通道，各通道提交后完成
+     *
+     * @param records
+     * @return
+     */
+    private CompletableFuture<Void> apply(List<SpoolRecord> records) {
+        List<CompletableFuture<Void>> applyFutures = new ArrayList<>(records.size() + dumpLaneScheduler.getLaneCount());
+        for (SpoolRecord record : records) {
+            DocWriteRequest request = record.toRequest();
+            int lane = dumpLaneScheduler.laneOf(record.getIndex(), record.getId());
+            DocWriteRequest fallback = record.toFallback();
+            applyFutures.add(dumpLaneScheduler.submit(lane, () -> elasticSearchBulkManager.add(
+                    OWNER_PREFIX + destination, lane, request, fallback, record.getPosition())));
+        }
+        applyFutures.add(elasticSearchBulkManager.flushAllLanes(OWNER_PREFIX + destination));
+        return CompletableFuture.allOf(applyFutures.toArray(new CompletableFuture[0]));
+    }
+
+    private void retry() {
+        try {
+            spool.rewind();
+            Thread.sleep(retryBackoffMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } catch (Exception e) {
+            logger.error("spool回到检查点异常", e);
+        }
+    }
+}
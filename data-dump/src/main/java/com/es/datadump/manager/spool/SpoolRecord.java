@@ -0,0 +1,240 @@
+package com.es.datadump.manager.spool;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * spool中的一条写入请求
+ * 保存组装好的ES请求（操作、索引、主键、文档JSON、版本号）及其binlog位点，排空时原样还原，不再重复字段转换。
+ * 部分更新记录的doc为变更的列，upsert为整行数据，文档不存在时还原为整行upsert。
+ *
+ * @author yiheni
+ */
+public class SpoolRecord {
+
+    private final static byte OP_INDEX = 'I';
+    private final static byte OP_UPDATE = 'U';
+    private final static byte OP_DELETE = 'D';
+    private final static byte OP_PARTIAL = 'P';
+
+    private final byte op;
+    private final String index;
+    private final String type;
+    private final String id;
+    private final byte[] doc;
+    private final byte[] upsert;
+    private final String position;
+    private long version = Versions.MATCH_ANY;
+    private byte versionType = VersionType.INTERNAL.getValue();
+    private long timestamp;
+
+    private SpoolRecord(byte op, String index, String type, String id, byte[] doc, byte[] upsert, String position) {
+        this.op = op;
+        this.index = index;
+        this.type = type;
+        this.id = id;
+        this.doc = doc;
+        this.upsert = upsert;
+        this.position = position;
+    }
+
+    private SpoolRecord withVersion(long version, byte versionType) {
+        this.version = version;
+        this.versionType = versionType;
+        return this;
+    }
+
+    /**
+     * 由写入请求生成记录，文档统一为JSON
+     *
+     * @param request
+     * @param position binlog位点，可为空
+     * @return
+     */
+    public static SpoolRecord of(DocWriteRequest request, String position) {
+        String safePosition = position == null ? "" : position;
+        if (request instanceof DeleteRequest) {
+            return new SpoolRecord(OP_DELETE, request.index(), request.type(), request.id(), null, null, safePosition)
+                    .withVersion(request.version(), request.versionType().getValue());
+        }
+        if (request instanceof IndexRequest) {
+            return new SpoolRecord(OP_INDEX, request.index(), request.type(), request.id(),
+                    BytesReference.toBytes(((IndexRequest) request).source()), null, safePosition)
+                    .withVersion(request.version(), request.versionType().getValue());
+        }
+        UpdateRequest update = (UpdateRequest) request;
+        return new SpoolRecord(OP_UPDATE, update.index(), update.type(), update.id(),
+                update.doc() == null ? null : BytesReference.toBytes(update.doc().source()),
+                update.upsertRequest() == null ? null : BytesReference.toBytes(update.upsertRequest().source()),
+                safePosition);
+    }
+
+    /**
+     * 由部分更新请求及其整行upsert生成记录
+     *
+     * @param request  只含变更列的更新请求
+     * @param fallback 整行upsert请求，为空时按普通请求记录
+     * @param position binlog位点，可为空
+     * @return
+     */
+    public static SpoolRecord of(DocWriteRequest request, DocWriteRequest fallback, String position) {
+        if (!(request instanceof UpdateRequest) || !(fallback instanceof UpdateRequest)
+                || ((UpdateRequest) fallback).upsertRequest() == null) {
+            return of(request, position);
+        }
+        UpdateRequest update = (UpdateRequest) request;
+        return new SpoolRecord(OP_PARTIAL, update.index(), update.type(), update.id(),
+                BytesReference.toBytes(update.doc().source()),
+                BytesReference.toBytes(((UpdateRequest) fallback).upsertRequest().source()),
+                position == null ? "" : position);
+    }
+
+    /**
+     * 部分更新记录还原为整行upsert请求，其他记录返回null
+     *
+     * @return
+     */
+    public DocWriteRequest toFallback() {
+        if (op != OP_PARTIAL) {
+            return null;
+        }
+        return new UpdateRequest(index, type, id).doc(upsert, XContentType.JSON).upsert(upsert, XContentType.JSON);
+    }
+
+    /**
+     * 还原为写入请求
+     *
+     * @return
+     */
+    public DocWriteRequest toRequest() {
+        if (op == OP_DELETE) {
+            return versioned(new DeleteRequest(index, type, id));
+        }
+        if (op == OP_INDEX) {
+            return versioned(new IndexRequest(index, type, id).source(doc, XContentType.JSON));
+        }
+        UpdateRequest update = new UpdateRequest(index, type, id);
+        if (op == OP_PARTIAL) {
+            return update.doc(doc, XContentType.JSON);
+        }
+        if (doc != null) {
+            update.doc(doc, XContentType.JSON);
+        }
+        if (upsert != null) {
+            update.upsert(upsert, XContentType.JSON);
+        }
+        return update;
+    }
+
+    private DocWriteRequest versioned(DocWriteRequest request) {
+        if (versionType == VersionType.INTERNAL.getValue()) {
+            return request;
+        }
+        request.version(version);
+        request.versionType(VersionType.fromValue(versionType));
+        return request;
+    }
+
+    /**
+     * 序列化为字节，spool与死信文件共用
+     *
+     * @return
+     * @throws IOException
+     */
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + length(doc) + length(upsert));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeUTF(index);
+        out.writeUTF(type);
+        out.writeUTF(id);
+        writeBytes(out, doc);
+        writeBytes(out, upsert);
+        out.writeUTF(position);
+        out.writeLong(version);
+        out.writeByte(versionType);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 反序列化
+     *
+     * @param in
+     * @param timestamp 写入时间
+     * @return
+     * @throws IOException
+     */
+    public static SpoolRecord decode(DataInputStream in, long timestamp) throws IOException {
+        SpoolRecord record = new SpoolRecord(in.readByte(), in.readUTF(), in.readUTF(), in.readUTF(),
+                readBytes(in), readBytes(in), in.readUTF());
+        record.withVersion(in.readLong(), in.readByte());
+        record.timestamp = timestamp;
+        return record;
+    }
+
+    static SpoolRecord decode(byte[] body, long timestamp) throws IOException {
+        return decode(new DataInputStream(new ByteArrayInputStream(body)), timestamp);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * binlog位点，格式 文件名:偏移
+     *
+     * @return
+     */
+    public String getPosition() {
+        return position;
+    }
+
+    /**
+     * 写入spool的时间
+     *
+     * @return
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
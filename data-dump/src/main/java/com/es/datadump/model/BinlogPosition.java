@@ -0,0 +1,104 @@
+package com.es.datadump.model;
+
+/**
+ * binlog位点：文件名、文件内偏移与binlog执行时间
+ *
+ * @author yiheni
+ */
+public class BinlogPosition implements Comparable<BinlogPosition> {
+
+    private final String logfileName;
+    private final long logfileOffset;
+    private final long executeTime;
+
+    public BinlogPosition(String logfileName, long logfileOffset, long executeTime) {
+        this.logfileName = logfileName;
+        this.logfileOffset = logfileOffset;
+        this.executeTime = executeTime;
+    }
+
+    /**
+     * 解析 文件名:偏移:执行时间 格式的位点
+     *
+     * @param text
+     * @return
+     */
+    public static BinlogPosition parse(String text) {
+        int timeIndex = text.lastIndexOf(':');
+        int offsetIndex = text.lastIndexOf(':', timeIndex - 1);
+        if (offsetIndex <= 0) {
+            throw new IllegalArgumentException("binlog位点格式错误: " + text);
+        }
+        return new BinlogPosition(text.substring(0, offsetIndex),
+                Long.parseLong(text.substring(offsetIndex + 1, timeIndex)),
+                Long.parseLong(text.substring(timeIndex + 1)));
+    }
+
+    /**
+     * 由binlog位点换算ES外部版本号：高32位为binlog文件序号，低32位为文件内偏移，
+     * binlog越靠后版本号越大。
+     * 注意：RESET MASTER或切换到binlog序号更小的实例后序号回退，之后的写入版本号都小于ES中已有的版本，
+     * 会被ES当作过期写入拒绝，需重建索引或清理版本后才能继续使用外部版本号
+     *
+     * @param logfileName   如 mysql-bin.000123
+     * @param logfileOffset
+     * @return
+     */
+    public static long toVersion(String logfileName, long logfileOffset) {
+        return (sequenceOf(logfileName) << 32) | (logfileOffset & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 取binlog文件名的数字后缀
+     *
+     * @param logfileName 如 mysql-bin.000123
+     * @return 如 123
+     */
+    public static long sequenceOf(String logfileName) {
+        int i = logfileName.length();
+        while (i > 0 && Character.isDigit(logfileName.charAt(i - 1))) {
+            i--;
+        }
+        if (i == logfileName.length()) {
+            throw new IllegalArgumentException("binlog文件名没有序号: " + logfileName);
+        }
+        return Long.parseLong(logfileName.substring(i));
+    }
+
+    public long getSequence() {
+        return sequenceOf(logfileName);
+    }
+
+    public String getLogfileName() {
+        return logfileName;
+    }
+
+    public long getLogfileOffset() {
+        return logfileOffset;
+    }
+
+    public long getExecuteTime() {
+        return executeTime;
+    }
+
+    /**
+     * 按binlog文件序号的数值、文件内偏移比较先后；序号超过定长位数（如mysql-bin.999999之后的mysql-bin.1000000）
+     * 时按文件名字典序比较会出错
+     *
+     * @param other
+     * @return
+     */
+    @Override
+    public int compareTo(BinlogPosition other) {
+        int cmp = Long.compare(getSequence(), other.getSequence());
+        if (cmp == 0) {
+            cmp = logfileName.compareTo(other.logfileName);
+        }
+        return cmp != 0 ? cmp : Long.compare(logfileOffset, other.logfileOffset);
+    }
+
+    @Override
+    public String toString() {
+        return logfileName + ":" + logfileOffset + ":" + executeTime;
+    }
+}
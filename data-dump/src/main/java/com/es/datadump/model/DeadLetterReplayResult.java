@@ -0,0 +1,91 @@
+package com.es.datadump.model;
+
+import java.io.Serializable;
+
+/**
+ * 死信重放结果
+ *
+ * @author yiheni
+ */
+public class DeadLetterReplayResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 重放的文件数
+     */
+    private int files;
+
+    /**
+     * 重放的文档数
+     */
+    private int total;
+
+    /**
+     * 写入成功的文档数
+     */
+    private int succeeded;
+
+    /**
+     * 仍失败、重新记入死信的文档数
+     */
+    private int failed;
+
+    /**
+     * 耗时
+     */
+    private long costMs;
+
+    /**
+     * 累计一个文件的重放结果
+     *
+     * @param total
+     * @param failed
+     */
+    public void addFile(int total, int failed) {
+        this.files++;
+        this.total += total;
+        this.succeeded += total - failed;
+        this.failed += failed;
+    }
+
+    public int getFiles() {
+        return files;
+    }
+
+    public void setFiles(int files) {
+        this.files = files;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public void setSucceeded(int succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public long getCostMs() {
+        return costMs;
+    }
+
+    public void setCostMs(long costMs) {
+        this.costMs = costMs;
+    }
+}
@@ -0,0 +1,130 @@
+package com.es.datadump.model;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * binlog单行数据解析后的同步单元
+ *
+ * @author yiheni
+ */
+public class DumpRow {
+
+    /**
+     * 目标索引，schema.table
+     */
+    private String index;
+
+    /**
+     * 事件类型：INSERT / UPDATE / DELETE
+     */
+    private EventType eventType;
+
+    /**
+     * ES主键
+     */
+    private String esKey;
+
+    /**
+     * 列名与值
+     */
+    private Map colMap;
+
+    /**
+     * binlog文件名
+     */
+    private String logfileName;
+
+    /**
+     * binlog文件内偏移
+     */
+    private long logfileOffset;
+
+    /**
+     * UPDATE事件中值有变化的列名，为空表示按整行写入
+     */
+    private Set<String> updatedColumns;
+
+    public DumpRow(String index, EventType eventType, String esKey, Map colMap) {
+        this.index = index;
+        this.eventType = eventType;
+        this.esKey = esKey;
+        this.colMap = colMap;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public void setIndex(String index) {
+        this.index = index;
+    }
+
+    public EventType getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(EventType eventType) {
+        this.eventType = eventType;
+    }
+
+    public String getEsKey() {
+        return esKey;
+    }
+
+    public void setEsKey(String esKey) {
+        this.esKey = esKey;
+    }
+
+    public Map getColMap() {
+        return colMap;
+    }
+
+    public void setColMap(Map colMap) {
+        this.colMap = colMap;
+    }
+
+    public String getLogfileName() {
+        return logfileName;
+    }
+
+    public void setLogfileName(String logfileName) {
+        this.logfileName = logfileName;
+    }
+
+    public long getLogfileOffset() {
+        return logfileOffset;
+    }
+
+    public void setLogfileOffset(long logfileOffset) {
+        this.logfileOffset = logfileOffset;
+    }
+
+    public Set<String> getUpdatedColumns() {
+        return updatedColumns;
+    }
+
+    public void setUpdatedColumns(Set<String> updatedColumns) {
+        this.updatedColumns = updatedColumns;
+    }
+
+    /**
+     * 由binlog位点换算的ES外部版本号
+     *
+     * @return
+     */
+    public long getVersion() {
+        return BinlogPosition.toVersion(logfileName, logfileOffset);
+    }
+
+    /**
+     * binlog位点，格式 文件名:偏移
+     *
+     * @return
+     */
+    public String getPosition() {
+        return logfileName + ":" + logfileOffset;
+    }
+}
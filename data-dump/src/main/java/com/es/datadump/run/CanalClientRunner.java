@@ -1,16 +1,28 @@
 package com.es.datadump.run;
 
 import com.alibaba.otter.canal.client.CanalConnector;
+import com.es.datadump.enums.DumpApplyMode;
 import com.es.datadump.manager.canal.CanalCoreManager;
+import com.es.datadump.manager.canal.CanalCoreManagerFactory;
+import com.es.datadump.manager.canal.CanalPositionCheckpoint;
 import com.es.datadump.manager.canal.CanalInitClientManager;
-import com.es.datadump.manager.ServiceImportManager;
-import com.es.stone.manager.ElasticSearchDumpManager;
+import com.es.datadump.manager.elasticsearch.ElasticSearchBulkManager;
+import com.es.datadump.manager.executor.DumpLaneScheduler;
+import com.es.datadump.manager.spool.DumpSpool;
+import com.es.datadump.manager.spool.DumpSpoolDrainer;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 此处只能监听到ContextClosedEvent
  * 因此，考虑使用CommandLineRunner实现启动后自动执行
@@ -27,31 +39,113 @@ public class CanalClientRunner implements CommandLineRunner {
     private CanalInitClientManager canalInitClientManager;
 
     @Autowired
-    private ElasticSearchDumpManager elasticSearchDumpManager;
+    private CanalCoreManagerFactory canalCoreManagerFactory;
+
+    @Autowired
+    private DumpLaneScheduler dumpLaneScheduler;
+
+    @Autowired
+    private ElasticSearchBulkManager elasticSearchBulkManager;
 
     @Autowired
-    private ServiceImportManager serviceImportManager;
+    private MeterRegistry meterRegistry;
+
+    @Value("${dump.checkpoint.enabled:true}")
+    private boolean checkpointEnabled;
+
+    @Value("${dump.checkpoint.dir:checkpoint}")
+    private String checkpointDir;
+
+    @Value("${dump.checkpoint.sync-batches:100}")
+    private int checkpointSyncBatches;
+
+    @Value("${dump.checkpoint.sync-interval-ms:1000}")
+    private long checkpointSyncIntervalMs;
+
+    @Value("${dump.spool.enabled:false}")
+    private boolean spoolEnabled;
+
+    @Value("${dump.spool.dir:spool}")
+    private String spoolDir;
+
+    @Value("${dump.spool.segment-mb:64}")
+    private int spoolSegmentMb;
+
+    @Value("${dump.spool.max-disk-mb:10240}")
+    private long spoolMaxDiskMb;
+
+    @Value("${dump.spool.drain-batch:1000}")
+    private int spoolDrainBatch;
+
+    @Value("${dump.spool.retry-backoff-ms:1000}")
+    private long spoolRetryBackoffMs;
+
+    @Value("${dump.shutdown.timeout-seconds:30}")
+    private long shutdownTimeoutSeconds;
+
+    private final List<CanalCoreManager> canalManagers = new ArrayList<>();
+    private final List<DumpSpool> spools = new ArrayList<>();
+    private final List<DumpSpoolDrainer> drainers = new ArrayList<>();
+    private final List<CanalPositionCheckpoint> checkpoints = new ArrayList<>();
 
     @Override
     public void run(String... args) throws Exception {
         logger.info("-------------------------------------canal服务启动----------------------------------------------");
-        // 根据ip，直接创建链接，无HA的功能
-        CanalConnector canalConnector = canalInitClientManager.getCanalConnector();
-
-        final CanalCoreManager canalManager = new CanalCoreManager(canalInitClientManager.getDestination());
-        canalManager.setCanalConnector(canalConnector);
-        canalManager.setElasticSearchDumpManager(elasticSearchDumpManager);
-        canalManager.setServiceImportManager(serviceImportManager);
-        canalManager.start();
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            try {
-                logger.info("## stop the canal client");
-                canalManager.stop();
-            } catch (Throwable e) {
-                logger.warn("##something wrong happens when stopping canal:", e);
-            } finally {
-                logger.info("## canal client is down.");
+        if (canalCoreManagerFactory.getApplyMode() == DumpApplyMode.TRANSACTION && spoolEnabled) {
+            logger.warn("启用spool时由排空线程按通道写入，按事务写入不生效");
+        }
+        // 每个destination独立拉取、确认，共享解析线程池、写入通道与批量缓冲
+        for (String destination : canalInitClientManager.getDestinations()) {
+            // 根据ip，直接创建链接，无HA的功能
+            CanalConnector canalConnector = canalInitClientManager.getCanalConnector(destination);
+            CanalCoreManager canalManager = canalCoreManagerFactory.create(destination, canalConnector);
+            if (checkpointEnabled) {
+                // 本地记录已写入ES的位点，重启后跳过canal重复投递的部分
+                CanalPositionCheckpoint checkpoint = new CanalPositionCheckpoint(new File(checkpointDir), destination,
+                        checkpointSyncBatches, checkpointSyncIntervalMs);
+                checkpoint.open();
+                canalManager.setCheckpoint(checkpoint);
+                checkpoints.add(checkpoint);
+            }
+            if (spoolEnabled) {
+                // 启用spool：批次落盘即ack，由排空线程按ES承受能力写入
+                DumpSpool spool = new DumpSpool(new File(spoolDir, destination), spoolSegmentMb * 1024 * 1024,
+                        spoolMaxDiskMb * 1024 * 1024);
+                spool.open();
+                spool.bindTo(meterRegistry, destination);
+                DumpSpoolDrainer drainer = new DumpSpoolDrainer(destination, spool, dumpLaneScheduler,
+                        elasticSearchBulkManager, spoolDrainBatch, spoolRetryBackoffMs);
+                drainer.start();
+                canalManager.setSpool(spool);
+                spools.add(spool);
+                drainers.add(drainer);
             }
-        }));
+            canalManager.start();
+            canalManagers.add(canalManager);
+        }
+        logger.info("canal客户端启动完成, destinations: {}", canalInitClientManager.getDestinations());
+    }
+
+    /**
+     * 分阶段停止canal客户端，由spring关闭容器时调用
+     * 本bean依赖写入通道与批量管理，spring会先销毁本bean，再关闭线程池与批量缓冲，
+     * 保证在途批次排空时写入链路仍可用；整体在dump.shutdown.timeout-seconds内完成，超时未写入的批次不ack，由canal重新投递。
+     */
+    @PreDestroy
+    public void stop() {
+        long deadline = System.currentTimeMillis() + shutdownTimeoutSeconds * 1000;
+        try {
+            logger.info("## stop the canal client");
+            // 停止拉取，并行等待各destination的在途批次写入确认
+            canalManagers.parallelStream().forEach(canalManager -> canalManager.stop(deadline));
+            checkpoints.forEach(CanalPositionCheckpoint::close);
+            // 已落盘未排空的记录保留在spool中，重启后继续写入ES
+            drainers.parallelStream().forEach(drainer -> drainer.stop(deadline));
+            spools.forEach(DumpSpool::close);
+        } catch (Throwable e) {
+            logger.warn("##something wrong happens when stopping canal:", e);
+        } finally {
+            logger.info("## canal client is down.");
+        }
     }
 }
@@ -0,0 +1,71 @@
+package com.es.datadump.converter.column;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * 日期时间列的转换，含mysql零日期
+ *
+ * @author yiheni
+ */
+public class ColumnConvertersTest {
+
+    @Test
+    public void testDatetime() throws Exception {
+        Assert.assertEquals(dateOf(LocalDateTime.of(2018, 8, 1, 10, 20, 30)), convert("datetime", "2018-08-01 10:20:30"));
+        Assert.assertEquals(dateOf(LocalDateTime.of(2018, 8, 1, 10, 20, 30)), convert("timestamp", "2018-08-01 10:20:30"));
+        //带毫秒的值只取到秒
+        Assert.assertEquals(dateOf(LocalDateTime.of(2018, 8, 1, 10, 20, 30)), convert("datetime", "2018-08-01 10:20:30.123"));
+    }
+
+    @Test
+    public void testDateAndTime() throws Exception {
+        Assert.assertEquals(dateOf(LocalDate.of(2018, 8, 1).atStartOfDay()), convert("date", "2018-08-01"));
+        Assert.assertEquals(dateOf(LocalDate.of(1970, 1, 1).atTime(10, 20, 30)), convert("time", "10:20:30"));
+        Assert.assertEquals(dateOf(LocalDate.of(1970, 1, 1).atStartOfDay()), convert("time", "00:00:00"));
+    }
+
+    @Test
+    public void testBlankNotWritten() throws Exception {
+        Assert.assertNull(convert("datetime", ""));
+        Assert.assertNull(convert("date", " "));
+        Assert.assertNull(convert("time", ""));
+    }
+
+    @Test
+    public void testZeroDateNotWritten() throws Exception {
+        Assert.assertNull(convert("datetime", "0000-00-00 00:00:00"));
+        Assert.assertNull(convert("timestamp", "0000-00-00 00:00:00"));
+        Assert.assertNull(convert("date", "0000-00-00"));
+    }
+
+    @Test
+    public void testPartialZeroDateNotWritten() throws Exception {
+        Assert.assertNull(convert("datetime", "2018-00-00 10:20:30"));
+        Assert.assertNull(convert("datetime", "2018-08-00 00:00:00"));
+        Assert.assertNull(convert("datetime", "0000-08-01 10:20:30"));
+        Assert.assertNull(convert("date", "2018-00-01"));
+        Assert.assertNull(convert("date", "2018-08-00"));
+    }
+
+    @Test
+    public void testOtherTypesUnchanged() throws Exception {
+        Assert.assertEquals("0000-00-00", convert("varchar(10)", "0000-00-00"));
+        Assert.assertEquals("42", convert("int(11)", "42"));
+    }
+
+    private static Object convert(String mysqlType, String value) throws Exception {
+        Column column = Column.newBuilder().setName("c").setMysqlType(mysqlType).setValue(value).build();
+        return ColumnConverters.forMysqlType(mysqlType).convert(column);
+    }
+
+    private static Date dateOf(LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
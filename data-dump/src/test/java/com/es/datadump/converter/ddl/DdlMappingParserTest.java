@@ -0,0 +1,151 @@
+package com.es.datadump.converter.ddl;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Column;
+import com.es.datadump.converter.column.ColumnConverters;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ALTER TABLE语句解析为ES字段mapping
+ * 每个用例给出DDL、期望新增的字段及其ES类型（按出现顺序）、期望记为类型变更的列；
+ * 字段类型须与该类型的列值经ColumnConverters转换后ES动态mapping得到的类型一致。
+ *
+ * @author yiheni
+ */
+public class DdlMappingParserTest {
+
+    private final static List<Case> CASES = Arrays.asList(
+            new Case("ALTER TABLE tb ADD COLUMN age int(11) NOT NULL DEFAULT 0")
+                    .field("age", "text"),
+            new Case("ALTER TABLE tb ADD age int")
+                    .field("age", "text"),
+            new Case("alter table tb add column price decimal(10,2) after name")
+                    .field("price", "text"),
+            new Case("ALTER TABLE tb ADD (a bigint(20) unsigned, b varchar(32), c datetime)")
+                    .field("a", "text").field("b", "text").field("c", "date"),
+            new Case("ALTER TABLE tb ADD COLUMN a tinyint(1), ADD COLUMN b enum('x','y'), ADD COLUMN c json")
+                    .field("a", "text").field("b", "text").field("c", "text"),
+            new Case("ALTER TABLE `tb` ADD COLUMN `order` varchar(16) COMMENT 'a, b'")
+                    .field("order", "text"),
+            new Case("ALTER TABLE `db`.`tb` ADD COLUMN `created_at` timestamp NULL")
+                    .field("created_at", "date"),
+            new Case("ALTER TABLE db.tb ADD COLUMN birthday DATE")
+                    .field("birthday", "date"),
+            new Case("ALTER TABLE `db` . `tb` ADD COLUMN `start_time` time")
+                    .field("start_time", "date"),
+            new Case("ALTER TABLE tb ADD COLUMN updated_at datetime(3)")
+                    .field("updated_at", "text"),
+            new Case("ALTER ONLINE TABLE tb ADD COLUMN flag set('a','b')")
+                    .field("flag", "text"),
+            new Case("/* gh-ost */ ALTER TABLE tb ADD COLUMN note text -- comment")
+                    .field("note", "text"),
+            new Case("ALTER TABLE tb ADD COLUMN shape geometry")
+                    .field("shape", "text"),
+            new Case("ALTER TABLE tb CHANGE COLUMN old_name new_name varchar(64)")
+                    .field("new_name", "text"),
+            new Case("ALTER TABLE tb CHANGE `old_name` `new_name` datetime")
+                    .field("new_name", "date"),
+            new Case("ALTER TABLE tb CHANGE COLUMN name name varchar(128)")
+                    .retyped("name"),
+            new Case("ALTER TABLE tb MODIFY COLUMN age bigint(20)")
+                    .retyped("age"),
+            new Case("ALTER TABLE tb MODIFY `age` varchar(10), ADD COLUMN b int")
+                    .field("b", "text").retyped("age"),
+            new Case("ALTER TABLE tb ADD INDEX idx_age (age)"),
+            new Case("ALTER TABLE tb ADD UNIQUE KEY uk_name (name), ADD PRIMARY KEY (id)"),
+            new Case("ALTER TABLE tb ADD CONSTRAINT fk_a FOREIGN KEY (a) REFERENCES other (id)"),
+            new Case("ALTER TABLE tb DROP COLUMN age"),
+            new Case("ALTER TABLE tb RENAME TO tb2"),
+            new Case("CREATE TABLE tb (id int, name varchar(10))"),
+            new Case("DROP TABLE tb"),
+            new Case("TRUNCATE TABLE tb"),
+            new Case(""),
+            new Case(null)
+    );
+
+    /**
+     * mysql字段类型及其binlog中的列值，用于核对mapping与转换器实际写入的值一致
+     */
+    private final static String[][] COLUMN_VALUES = {
+            {"int(11)", "42"},
+            {"bigint(20) unsigned", "18446744073709551615"},
+            {"decimal(10,2)", "3.14"},
+            {"double", "2.5"},
+            {"tinyint(1)", "1"},
+            {"year(4)", "2018"},
+            {"varchar(32)", "abc"},
+            {"text", "abc"},
+            {"enum('x','y')", "x"},
+            {"json", "{\"a\":1}"},
+            {"blob", "abc"},
+            {"datetime", "2018-08-01 10:00:00"},
+            {"timestamp", "2018-08-01 10:00:00"},
+            {"date", "2018-08-01"},
+            {"time", "10:00:00"},
+            {"datetime(3)", "2018-08-01 10:00:00.123"},
+    };
+
+    @Test
+    public void testCases() {
+        for (Case c : CASES) {
+            DdlMappingParser.Result result = DdlMappingParser.parse(c.sql);
+            Map<String, Object> types = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> field : result.getProperties().entrySet()) {
+                types.put(field.getKey(), ((Map) field.getValue()).get("type"));
+            }
+            Assert.assertEquals(c.sql, c.fields, types);
+            Assert.assertEquals(c.sql, new ArrayList<>(c.fields.keySet()), new ArrayList<>(types.keySet()));
+            Assert.assertEquals(c.sql, c.retyped, result.getRetypedColumns());
+        }
+    }
+
+    @Test
+    public void testTextHasKeywordSubField() {
+        Map<String, Object> field = DdlMappingParser.fieldOf("varchar(32)");
+        Map<String, Object> keyword = new LinkedHashMap<>();
+        keyword.put("type", "keyword");
+        keyword.put("ignore_above", 256);
+        Assert.assertEquals("text", field.get("type"));
+        Assert.assertEquals(Collections.singletonMap("keyword", keyword), field.get("fields"));
+    }
+
+    @Test
+    public void testFieldMatchesConvertedValue() throws Exception {
+        for (String[] columnValue : COLUMN_VALUES) {
+            Column column = Column.newBuilder().setName("c").setMysqlType(columnValue[0]).setValue(columnValue[1]).build();
+            Object value = ColumnConverters.forMysqlType(columnValue[0]).convert(column);
+            //Date由ES动态mapping为date，字符串为text并带keyword子字段
+            String expected = value instanceof Date ? "date" : "text";
+            Assert.assertTrue(columnValue[0], value instanceof Date || value instanceof String);
+            Assert.assertEquals(columnValue[0], expected, DdlMappingParser.fieldOf(columnValue[0]).get("type"));
+        }
+    }
+
+    private static class Case {
+        private final String sql;
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+        private final List<String> retyped = new ArrayList<>();
+
+        private Case(String sql) {
+            this.sql = sql;
+        }
+
+        private Case field(String name, String type) {
+            fields.put(name, type);
+            return this;
+        }
+
+        private Case retyped(String name) {
+            retyped.add(name);
+            return this;
+        }
+    }
+}
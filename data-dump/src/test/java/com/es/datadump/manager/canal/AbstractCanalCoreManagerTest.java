@@ -0,0 +1,124 @@
+package com.es.datadump.manager.canal;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+import com.es.datadump.manager.ServiceImportManager;
+import com.es.datadump.manager.canal.CanalPrefetchBuffer.PrefetchedMessage;
+import com.es.datadump.model.DumpRow;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 写入失败后的回滚，UPDATE事件的部分更新
+ *
+ * @author yiheni
+ */
+public class AbstractCanalCoreManagerTest {
+
+    @Test
+    public void testRollbackWithPrefetchedBatch() throws Exception {
+        CanalConnector connector = Mockito.mock(CanalConnector.class);
+        CanalPrefetchBuffer prefetchBuffer = new CanalPrefetchBuffer(2, Long.MAX_VALUE);
+        AbstractCanalCoreManager manager = new AbstractCanalCoreManager("test", connector);
+        manager.setPrefetchBuffer(prefetchBuffer);
+        manager.setMaxInFlightBatches(4);
+
+        //队首批次写入失败，下一批次已拉取、仍在预取队列中未分派
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("es write failed"));
+        PrefetchedMessage prefetched = new PrefetchedMessage(2L, 0L, Collections.emptyMap(),
+                Collections.emptyList(), new BitSet());
+        manager.getAckWindow().add(1L, failed, null);
+        manager.getAckWindow().add(2L, prefetched.getApplied(), null);
+        Assert.assertTrue(prefetchBuffer.offer(prefetched, 0L));
+
+        manager.rollback();
+
+        Assert.assertTrue(prefetched.getApplied().isCancelled());
+        Assert.assertTrue(prefetchBuffer.isEmpty());
+        Assert.assertEquals(0, manager.getAckWindow().size());
+        Mockito.verify(connector, Mockito.never()).ack(ArgumentMatchers.anyLong());
+        Mockito.verify(connector).rollback();
+    }
+
+    @Test
+    public void testRollbackAcksSucceededBatches() throws Exception {
+        CanalConnector connector = Mockito.mock(CanalConnector.class);
+        AbstractCanalCoreManager manager = new AbstractCanalCoreManager("test", connector);
+        manager.setMaxInFlightBatches(4);
+
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("es write failed"));
+        manager.getAckWindow().add(1L, CompletableFuture.completedFuture(null), null);
+        manager.getAckWindow().add(2L, failed, null);
+
+        manager.rollback();
+
+        Mockito.verify(connector).ack(1L);
+        Mockito.verify(connector, Mockito.never()).ack(2L);
+        Mockito.verify(connector).rollback();
+        Assert.assertEquals(0, manager.getAckWindow().size());
+    }
+
+    @Test
+    public void testPartialDocOfUpdatedColumns() {
+        AbstractCanalCoreManager manager = newPartialUpdateManager();
+        DumpRow row = updateRow("name", "updated_at");
+
+        //updated_at被列过滤规则排除，不在文档中
+        Assert.assertEquals(Collections.singletonMap("name", "b"), manager.partialDocOf(row, fullRequest(row)));
+    }
+
+    @Test
+    public void testPartialDocEmptyWhenUpdatedColumnsFiltered() {
+        AbstractCanalCoreManager manager = newPartialUpdateManager();
+        DumpRow row = updateRow("updated_at");
+
+        //变更的列全部被过滤，返回空map由调用方跳过，不写入空文档
+        Assert.assertTrue(manager.partialDocOf(row, fullRequest(row)).isEmpty());
+    }
+
+    @Test
+    public void testPartialDocNullForFullRow() {
+        AbstractCanalCoreManager manager = newPartialUpdateManager();
+        DumpRow row = updateRow("id", "name");
+        Assert.assertNull(manager.partialDocOf(row, fullRequest(row)));
+
+        row.setEventType(EventType.INSERT);
+        Assert.assertNull(manager.partialDocOf(row, fullRequest(row)));
+
+        manager.setPartialUpdate(false);
+        Assert.assertNull(manager.partialDocOf(updateRow("updated_at"), fullRequest(row)));
+    }
+
+    private static AbstractCanalCoreManager newPartialUpdateManager() {
+        AbstractCanalCoreManager manager = new AbstractCanalCoreManager("test", Mockito.mock(CanalConnector.class));
+        manager.setServiceImportManager(new ServiceImportManager());
+        manager.setPartialUpdate(true);
+        return manager;
+    }
+
+    private static DumpRow updateRow(String... updatedColumns) {
+        Map<String, Object> colMap = new HashMap<>();
+        colMap.put("id", "1");
+        colMap.put("name", "b");
+        DumpRow row = new DumpRow("db.tb", EventType.UPDATE, "1", colMap);
+        row.setUpdatedColumns(new HashSet<>(Arrays.asList(updatedColumns)));
+        return row;
+    }
+
+    private static UpdateRequest fullRequest(DumpRow row) {
+        return new UpdateRequest(row.getIndex(), "_doc", row.getEsKey()).doc(row.getColMap()).upsert(row.getColMap());
+    }
+}
@@ -0,0 +1,76 @@
+package com.es.datadump.manager.canal;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 确认窗口按顺序ack，失败、取消的批次均视为已结束
+ *
+ * @author yiheni
+ */
+public class CanalAckWindowTest {
+
+    @Test
+    public void testAckInOrder() throws Exception {
+        CanalConnector connector = Mockito.mock(CanalConnector.class);
+        CanalAckWindow window = new CanalAckWindow(4);
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        window.add(1L, CompletableFuture.completedFuture(null), null);
+        window.add(2L, second, null);
+        window.add(3L, CompletableFuture.completedFuture(null), null);
+
+        //队首之后的批次已完成也要等前面的批次
+        Assert.assertEquals(1, window.ackCompleted(connector));
+        second.complete(null);
+        Assert.assertEquals(2, window.ackCompleted(connector));
+        Mockito.verify(connector).ack(1L);
+        Mockito.verify(connector).ack(2L);
+        Mockito.verify(connector).ack(3L);
+        Assert.assertEquals(0, window.size());
+    }
+
+    @Test
+    public void testAwaitAllSettlesOnCancelled() throws Exception {
+        CanalAckWindow window = new CanalAckWindow(4);
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("es write failed"));
+        CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        cancelled.cancel(false);
+        window.add(1L, failed, null);
+        window.add(2L, cancelled, null);
+
+        Assert.assertTrue(window.awaitAll(System.currentTimeMillis() + 1000L));
+    }
+
+    @Test
+    public void testAckSucceededAndClear() throws Exception {
+        CanalConnector connector = Mockito.mock(CanalConnector.class);
+        CanalAckWindow window = new CanalAckWindow(4);
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("es write failed"));
+        CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        cancelled.cancel(false);
+        window.add(1L, CompletableFuture.completedFuture(null), null);
+        window.add(2L, failed, null);
+        window.add(3L, cancelled, null);
+
+        window.ackSucceededAndClear(connector);
+        Mockito.verify(connector).ack(1L);
+        Mockito.verify(connector, Mockito.never()).ack(2L);
+        Mockito.verify(connector, Mockito.never()).ack(3L);
+        Assert.assertEquals(0, window.size());
+    }
+
+    @Test
+    public void testAwaitAllTimeout() throws Exception {
+        CanalAckWindow window = new CanalAckWindow(4);
+        window.add(1L, new CompletableFuture<>(), null);
+
+        Assert.assertFalse(window.awaitAll(System.currentTimeMillis() + 50L));
+        Assert.assertEquals(1, window.size());
+    }
+}
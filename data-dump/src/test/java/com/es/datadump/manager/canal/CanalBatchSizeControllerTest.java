@@ -0,0 +1,100 @@
+package com.es.datadump.manager.canal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * canal拉取批次大小的自适应控制
+ *
+ * @author yiheni
+ */
+public class CanalBatchSizeControllerTest {
+
+    private final static long LAG_THRESHOLD_MS = 1000L;
+    private final static long MAX_APPLY_MS = 2000L;
+    private final static long MAX_MEM_BYTES = 1024L * 1024;
+
+    @Test
+    public void testGrowWhenLaggingAndFull() {
+        CanalBatchSizeController controller = newController(128);
+        controller.onFetched(128, 5000L, 0L, 0L);
+        Assert.assertEquals(256, controller.getBatchSize());
+        controller.onFetched(256, 5000L, 0L, 0L);
+        Assert.assertEquals(512, controller.getBatchSize());
+    }
+
+    @Test
+    public void testKeepWhenLaggingButNotFull() {
+        CanalBatchSizeController controller = newController(128);
+        //延迟高但批次未拉满，放大批次没有意义
+        controller.onFetched(100, 5000L, 0L, 0L);
+        Assert.assertEquals(128, controller.getBatchSize());
+    }
+
+    @Test
+    public void testGrowCappedAtMax() {
+        CanalBatchSizeController controller = newController(3000);
+        controller.onFetched(3000, 5000L, 0L, 0L);
+        Assert.assertEquals(4096, controller.getBatchSize());
+        controller.onFetched(4096, 5000L, 0L, 0L);
+        Assert.assertEquals(4096, controller.getBatchSize());
+    }
+
+    @Test
+    public void testHalveOnMemoryOverrun() {
+        CanalBatchSizeController controller = newController(1024);
+        //内存超限优先于延迟放大
+        controller.onFetched(1024, 5000L, MAX_MEM_BYTES + 1, 0L);
+        Assert.assertEquals(512, controller.getBatchSize());
+    }
+
+    @Test
+    public void testHalveOnSlowApply() {
+        CanalBatchSizeController controller = newController(1024);
+        controller.onFetched(1024, 5000L, 0L, MAX_APPLY_MS + 1);
+        Assert.assertEquals(512, controller.getBatchSize());
+    }
+
+    @Test
+    public void testHalveBoundedAtMin() {
+        CanalBatchSizeController controller = newController(20);
+        controller.onFetched(20, 0L, MAX_MEM_BYTES + 1, 0L);
+        Assert.assertEquals(16, controller.getBatchSize());
+    }
+
+    @Test
+    public void testShrinkWhenCaughtUp() {
+        CanalBatchSizeController controller = newController(1024);
+        controller.onFetched(100, 0L, 0L, 0L);
+        Assert.assertEquals(768, controller.getBatchSize());
+        //拉取量不足一半才收缩
+        controller.onFetched(500, 0L, 0L, 0L);
+        Assert.assertEquals(768, controller.getBatchSize());
+    }
+
+    @Test
+    public void testShrinkBoundedAtMin() {
+        CanalBatchSizeController controller = newController(17);
+        controller.onFetched(1, 0L, 0L, 0L);
+        Assert.assertEquals(16, controller.getBatchSize());
+        controller.onFetched(1, 0L, 0L, 0L);
+        Assert.assertEquals(16, controller.getBatchSize());
+    }
+
+    @Test
+    public void testIdleResetsToMin() {
+        CanalBatchSizeController controller = newController(1024);
+        controller.onIdle();
+        Assert.assertEquals(16, controller.getBatchSize());
+    }
+
+    @Test
+    public void testInitBounded() {
+        Assert.assertEquals(16, newController(1).getBatchSize());
+        Assert.assertEquals(4096, newController(100000).getBatchSize());
+    }
+
+    private static CanalBatchSizeController newController(int initBatchSize) {
+        return new CanalBatchSizeController(initBatchSize, 16, 4096, LAG_THRESHOLD_MS, MAX_APPLY_MS, MAX_MEM_BYTES);
+    }
+}
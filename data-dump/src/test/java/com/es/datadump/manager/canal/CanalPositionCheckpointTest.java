@@ -0,0 +1,116 @@
+package com.es.datadump.manager.canal;
+
+import com.es.datadump.model.BinlogPosition;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * binlog检查点的落盘与恢复，损坏的检查点忽略而不是按错误位点跳过数据
+ *
+ * @author yiheni
+ */
+public class CanalPositionCheckpointTest {
+
+    private final static String DESTINATION = "example";
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("dump-checkpoint").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testSyncAndReopen() throws IOException {
+        CanalPositionCheckpoint checkpoint = newCheckpoint();
+        Assert.assertNull(checkpoint.open());
+        checkpoint.update(new BinlogPosition("mysql-bin.000003", 1024L, 1000L));
+        checkpoint.update(new BinlogPosition("mysql-bin.000004", 4L, 2000L));
+        checkpoint.close();
+        Assert.assertFalse(tempFile().exists());
+
+        BinlogPosition position = newCheckpoint().open();
+        Assert.assertEquals("mysql-bin.000004", position.getLogfileName());
+        Assert.assertEquals(4L, position.getLogfileOffset());
+        Assert.assertEquals(2000L, position.getExecuteTime());
+    }
+
+    @Test
+    public void testTruncatedIgnored() throws IOException {
+        writeCheckpoint();
+        try (RandomAccessFile file = new RandomAccessFile(checkpointFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        Assert.assertNull(newCheckpoint().open());
+    }
+
+    @Test
+    public void testCorruptedIgnored() throws IOException {
+        writeCheckpoint();
+        try (RandomAccessFile file = new RandomAccessFile(checkpointFile(), "rw")) {
+            //位点文本中的偏移数字改为其他数字，长度不变
+            long offset = file.length() - 8;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value == '9' ? '1' : '9');
+        }
+
+        Assert.assertNull(newCheckpoint().open());
+    }
+
+    @Test
+    public void testUnversionedContentIgnored() throws IOException {
+        Files.write(checkpointFile().toPath(), "mysql-bin.000003:1024:1000".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertNull(newCheckpoint().open());
+    }
+
+    @Test
+    public void testLeftoverTempFileIgnored() throws IOException {
+        writeCheckpoint();
+        Files.write(tempFile().toPath(), new byte[]{1, 2, 3});
+
+        CanalPositionCheckpoint checkpoint = newCheckpoint();
+        Assert.assertEquals("mysql-bin.000003", checkpoint.open().getLogfileName());
+        Assert.assertFalse(tempFile().exists());
+    }
+
+    private void writeCheckpoint() throws IOException {
+        CanalPositionCheckpoint checkpoint = newCheckpoint();
+        checkpoint.open();
+        checkpoint.update(new BinlogPosition("mysql-bin.000003", 123456L, 1000L));
+        checkpoint.close();
+    }
+
+    private CanalPositionCheckpoint newCheckpoint() {
+        return new CanalPositionCheckpoint(dir, DESTINATION, 1, Long.MAX_VALUE);
+    }
+
+    private File checkpointFile() {
+        return new File(dir, DESTINATION + ".checkpoint");
+    }
+
+    private File tempFile() {
+        return new File(dir, DESTINATION + ".checkpoint.tmp");
+    }
+}
@@ -0,0 +1,152 @@
+package com.es.datadump.manager.deadletter;
+
+import com.es.datadump.manager.elasticsearch.BulkConcurrencyLimiter;
+import com.es.datadump.manager.spool.SpoolRecord;
+import com.es.stone.manager.ElasticSearchDumpManager;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 死信重放保持同一文档的写入顺序
+ * ES以替身代替，按主键模拟失败，并记录每个批量请求中的文档。
+ *
+ * @author yiheni
+ */
+public class DeadLetterStoreTest {
+
+    private DeadLetterStore store;
+    private FakeDumpManager dumpManager;
+
+    @Before
+    public void setUp() {
+        store = new DeadLetterStore();
+        dumpManager = new FakeDumpManager();
+        ReflectionTestUtils.setField(store, "elasticSearchDumpManager", dumpManager);
+        ReflectionTestUtils.setField(store, "bulkConcurrencyLimiter", new UnlimitedLimiter());
+        ReflectionTestUtils.setField(store, "replayBatch", 3);
+    }
+
+    @Test
+    public void testPartitionKeepsDocumentOrder() {
+        List<SpoolRecord> records = Arrays.asList(record("a", 1), record("b", 1), record("a", 2),
+                record("c", 1), record("b", 2), record("a", 3));
+
+        List<List<SpoolRecord>> partitions = DeadLetterStore.partition(records, 2);
+        Assert.assertEquals(2, partitions.size());
+        int total = 0;
+        for (List<SpoolRecord> partition : partitions) {
+            total += partition.size();
+            assertVersionsAscending(partition);
+        }
+        Assert.assertEquals(records.size(), total);
+    }
+
+    @Test
+    public void testDocumentAppearsOncePerBulk() throws Exception {
+        store.replayPartition(Arrays.asList(record("a", 1), record("a", 2), record("b", 1), record("a", 3)));
+
+        for (List<String> ids : dumpManager.bulks) {
+            Assert.assertEquals(ids.size(), new HashSet<>(ids).size());
+        }
+        Assert.assertEquals(Arrays.asList("a:1", "a:2", "b:1", "a:3"), dumpManager.sent());
+    }
+
+    @Test
+    public void testFailureHoldsBackLaterRecordsOfSameDocument() throws Exception {
+        dumpManager.failIds.add("a");
+
+        List<DeadLetterStore.FailedRecord> failed = store.replayPartition(Arrays.asList(
+                record("a", 1), record("b", 1), record("a", 2), record("b", 2), record("a", 3)));
+
+        //a的第一条失败后，之后的a不再写入，按原顺序重新记入死信；b不受影响
+        Assert.assertEquals(Arrays.asList("a:1", "b:1", "b:2"), dumpManager.sent());
+        List<String> failedIds = new ArrayList<>();
+        for (DeadLetterStore.FailedRecord failedRecord : failed) {
+            failedIds.add(failedRecord.getRecord().getId() + ":" + failedRecord.getRecord().getPosition());
+        }
+        Assert.assertEquals(Arrays.asList("a:1", "a:2", "a:3"), failedIds);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReplayRequiresForceWithoutExternalVersion() {
+        store.replay(false);
+    }
+
+    private static SpoolRecord record(String id, int version) {
+        IndexRequest request = new IndexRequest("db.tb", "_doc", id)
+                .source(Collections.singletonMap("version", version));
+        return SpoolRecord.of(request, String.valueOf(version));
+    }
+
+    private static void assertVersionsAscending(List<SpoolRecord> partition) {
+        for (int i = 0; i < partition.size(); i++) {
+            for (int j = i + 1; j < partition.size(); j++) {
+                if (partition.get(i).getId().equals(partition.get(j).getId())) {
+                    Assert.assertTrue(Integer.parseInt(partition.get(i).getPosition())
+                            < Integer.parseInt(partition.get(j).getPosition()));
+                }
+            }
+        }
+    }
+
+    /**
+     * 按主键模拟失败的ES替身，文档内容中的version即死信顺序
+     */
+    private static class FakeDumpManager extends ElasticSearchDumpManager {
+        private final Set<String> failIds = new HashSet<>();
+        private final List<List<String>> bulks = new ArrayList<>();
+
+        @Override
+        public synchronized BulkResponse bulk(BulkRequest request) {
+            List<String> ids = new ArrayList<>();
+            BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+            for (int i = 0; i < items.length; i++) {
+                DocWriteRequest item = request.requests().get(i);
+                ids.add(item.id() + ":" + ((IndexRequest) item).sourceAsMap().get("version"));
+                if (failIds.contains(item.id())) {
+                    items[i] = new BulkItemResponse(i, item.opType(), new BulkItemResponse.Failure(item.index(),
+                            item.type(), item.id(), new IllegalStateException("mapper_parsing_exception")));
+                } else {
+                    items[i] = new BulkItemResponse(i, item.opType(), new IndexResponse(new ShardId(item.index(), "_na_", 0),
+                            item.type(), item.id(), 0L, 1L, 1L, true));
+                }
+            }
+            bulks.add(ids);
+            return new BulkResponse(items, 1L);
+        }
+
+        private List<String> sent() {
+            List<String> sent = new ArrayList<>();
+            for (List<String> ids : bulks) {
+                sent.addAll(ids);
+            }
+            return sent;
+        }
+    }
+
+    private static class UnlimitedLimiter extends BulkConcurrencyLimiter {
+        @Override
+        public synchronized void acquire() {
+        }
+
+        @Override
+        public synchronized void release(long latencyNanos, boolean rejected) {
+        }
+    }
+}
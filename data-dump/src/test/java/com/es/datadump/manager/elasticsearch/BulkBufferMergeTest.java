@@ -0,0 +1,210 @@
+package com.es.datadump.manager.elasticsearch;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量缓冲内同一文档前后两次变更的合并
+ * 覆盖各种先后顺序，合并结果须与按顺序分别写入ES一致；部分更新的整行upsert只在合并结果仍为无upsert的更新时保留。
+ *
+ * @author yiheni
+ */
+public class BulkBufferMergeTest {
+
+    private final static String INDEX = "db.tb";
+    private final static String TYPE = "_doc";
+    private final static String ID = "1";
+
+    @Test
+    public void testUpdateThenUpdateMergesDoc() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        Assert.assertFalse(buffer.add(write(update(row("a", 1, "b", 1), row("a", 1, "b", 1)), null, "p1")));
+        Assert.assertTrue(buffer.add(write(update(row("b", 2, "c", 2), row("a", 1, "b", 2, "c", 2)), null, "p2")));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        UpdateRequest request = (UpdateRequest) merged.getRequest();
+        Assert.assertEquals(row("a", 1, "b", 2, "c", 2), request.doc().sourceAsMap());
+        Assert.assertEquals(row("a", 1, "b", 2, "c", 2), request.upsertRequest().sourceAsMap());
+        Assert.assertNull(merged.getFallback());
+        Assert.assertEquals("p2", merged.getPosition());
+    }
+
+    @Test
+    public void testUpsertThenPartialKeepsUpsertCurrent() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(update(row("a", 1, "b", 1), row("a", 1, "b", 1)), null, "p1"));
+        buffer.add(write(partial(row("b", 2)), update(row("a", 1, "b", 2), row("a", 1, "b", 2)), "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        UpdateRequest request = (UpdateRequest) merged.getRequest();
+        Assert.assertEquals(row("a", 1, "b", 2), request.doc().sourceAsMap());
+        Assert.assertEquals(row("a", 1, "b", 2), request.upsertRequest().sourceAsMap());
+        //已带upsert，不再需要整行写入
+        Assert.assertNull(merged.getFallback());
+    }
+
+    @Test
+    public void testPartialThenPartialKeepsLatestFallback() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        UpdateRequest firstFallback = update(row("a", 2, "b", 1), row("a", 2, "b", 1));
+        UpdateRequest lastFallback = update(row("a", 2, "b", 3), row("a", 2, "b", 3));
+        buffer.add(write(partial(row("a", 2)), firstFallback, "p1"));
+        buffer.add(write(partial(row("b", 3)), lastFallback, "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        UpdateRequest request = (UpdateRequest) merged.getRequest();
+        Assert.assertEquals(row("a", 2, "b", 3), request.doc().sourceAsMap());
+        Assert.assertNull(request.upsertRequest());
+        Assert.assertSame(lastFallback, merged.getFallback());
+    }
+
+    @Test
+    public void testPartialWithoutFallbackKeepsPreviousFallback() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        UpdateRequest fallback = update(row("a", 2, "b", 1), row("a", 2, "b", 1));
+        buffer.add(write(partial(row("a", 2)), fallback, "p1"));
+        buffer.add(write(partial(row("b", 3)), null, "p2"));
+
+        Assert.assertSame(fallback, single(buffer).getFallback());
+    }
+
+    @Test
+    public void testPartialThenUpsertDropsFallback() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(partial(row("a", 2)), update(row("a", 2, "b", 1), row("a", 2, "b", 1)), "p1"));
+        buffer.add(write(update(row("a", 2, "b", 3), row("a", 2, "b", 3)), null, "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        UpdateRequest request = (UpdateRequest) merged.getRequest();
+        Assert.assertEquals(row("a", 2, "b", 3), request.upsertRequest().sourceAsMap());
+        Assert.assertNull(merged.getFallback());
+    }
+
+    @Test
+    public void testPartialThenDeleteDropsFallback() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(partial(row("a", 2)), update(row("a", 2, "b", 1), row("a", 2, "b", 1)), "p1"));
+        buffer.add(write(new DeleteRequest(INDEX, TYPE, ID), null, "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        Assert.assertTrue(merged.getRequest() instanceof DeleteRequest);
+        //保留整行数据会在文档不存在时把已删除的文档写回
+        Assert.assertNull(merged.getFallback());
+        Assert.assertEquals("p2", merged.getPosition());
+    }
+
+    @Test
+    public void testPartialThenIndexDropsFallback() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(partial(row("a", 2)), update(row("a", 2, "b", 1), row("a", 2, "b", 1)), "p1"));
+        buffer.add(write(index(row("a", 3, "b", 3)), null, "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        Assert.assertEquals(row("a", 3, "b", 3), ((IndexRequest) merged.getRequest()).sourceAsMap());
+        Assert.assertNull(merged.getFallback());
+    }
+
+    @Test
+    public void testDeleteThenUpsertBecomesIndex() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(new DeleteRequest(INDEX, TYPE, ID), null, "p1"));
+        buffer.add(write(update(row("a", 5), row("a", 5, "b", 5)), null, "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        Assert.assertTrue(merged.getRequest() instanceof IndexRequest);
+        Assert.assertEquals(row("a", 5, "b", 5), ((IndexRequest) merged.getRequest()).sourceAsMap());
+        Assert.assertNull(merged.getFallback());
+    }
+
+    @Test
+    public void testDeleteThenPartialIndexesFullRow() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(new DeleteRequest(INDEX, TYPE, ID), null, "p1"));
+        buffer.add(write(partial(row("a", 5)), update(row("a", 5, "b", 5), row("a", 5, "b", 5)), "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        Assert.assertTrue(merged.getRequest() instanceof IndexRequest);
+        //删除后只写变更列会丢掉其余列，须以整行覆盖
+        Assert.assertEquals(row("a", 5, "b", 5), ((IndexRequest) merged.getRequest()).sourceAsMap());
+        Assert.assertNull(merged.getFallback());
+    }
+
+    @Test
+    public void testIndexThenUpdateMergesSource() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(index(row("a", 1, "b", 1)), null, "p1"));
+        buffer.add(write(partial(row("b", 2)), update(row("a", 1, "b", 2), row("a", 1, "b", 2)), "p2"));
+
+        ElasticSearchBulkManager.BufferedWrite merged = single(buffer);
+        Assert.assertTrue(merged.getRequest() instanceof IndexRequest);
+        Assert.assertEquals(row("a", 1, "b", 2), ((IndexRequest) merged.getRequest()).sourceAsMap());
+        Assert.assertNull(merged.getFallback());
+    }
+
+    @Test
+    public void testUpdateThenDeleteBecomesDelete() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        buffer.add(write(update(row("a", 1), row("a", 1)), null, "p1"));
+        buffer.add(write(new DeleteRequest(INDEX, TYPE, ID), null, "p2"));
+
+        Assert.assertTrue(single(buffer).getRequest() instanceof DeleteRequest);
+    }
+
+    @Test
+    public void testDifferentDocumentsNotMerged() {
+        ElasticSearchBulkManager.BulkBuffer buffer = new ElasticSearchBulkManager.BulkBuffer();
+        Assert.assertFalse(buffer.add(write(index(row("a", 1)), null, "p1")));
+        Assert.assertFalse(buffer.add(write(new IndexRequest(INDEX, TYPE, "2").source(row("a", 2)), null, "p2")));
+        Assert.assertFalse(buffer.add(write(new IndexRequest("db.other", TYPE, ID).source(row("a", 3)), null, "p3")));
+
+        List<ElasticSearchBulkManager.BufferedWrite> writes = buffer.getWrites();
+        Assert.assertEquals(3, writes.size());
+        Assert.assertEquals("p1", writes.get(0).getPosition());
+        Assert.assertEquals("p2", writes.get(1).getPosition());
+        Assert.assertEquals("p3", writes.get(2).getPosition());
+    }
+
+    private static ElasticSearchBulkManager.BufferedWrite single(ElasticSearchBulkManager.BulkBuffer buffer) {
+        List<ElasticSearchBulkManager.BufferedWrite> writes = buffer.getWrites();
+        Assert.assertEquals(1, writes.size());
+        return writes.get(0);
+    }
+
+    private static ElasticSearchBulkManager.BufferedWrite write(DocWriteRequest request, DocWriteRequest fallback, String position) {
+        return new ElasticSearchBulkManager.BufferedWrite(request, fallback, position);
+    }
+
+    private static IndexRequest index(Map<String, Object> source) {
+        return new IndexRequest(INDEX, TYPE, ID).source(source);
+    }
+
+    /**
+     * 整行更新：变更列与整行upsert
+     */
+    private static UpdateRequest update(Map<String, Object> doc, Map<String, Object> upsert) {
+        return new UpdateRequest(INDEX, TYPE, ID).doc(doc).upsert(upsert);
+    }
+
+    /**
+     * 只写变更列的部分更新，不带upsert
+     */
+    private static UpdateRequest partial(Map<String, Object> doc) {
+        return new UpdateRequest(INDEX, TYPE, ID).doc(doc);
+    }
+
+    private static Map<String, Object> row(Object... keyValues) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            row.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return row;
+    }
+}
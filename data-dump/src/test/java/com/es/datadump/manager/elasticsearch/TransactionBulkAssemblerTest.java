@@ -0,0 +1,126 @@
+package com.es.datadump.manager.elasticsearch;
+
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * 按事务边界组装批量单元
+ * 删除请求的估算大小固定，便于按条数与字节数精确构造边界。
+ *
+ * @author yiheni
+ */
+public class TransactionBulkAssemblerTest {
+
+    private final static long DELETE_BYTES = ElasticSearchBulkManager.sizeOf(new DeleteRequest("db.tb", "_doc", "0"));
+
+    private int sequence;
+
+    @Test
+    public void testSmallTransactionsShareUnit() {
+        TransactionBulkAssembler assembler = new TransactionBulkAssembler(4, Long.MAX_VALUE);
+        addTransaction(assembler, 2);
+        addTransaction(assembler, 2);
+
+        List<List<ElasticSearchBulkManager.BufferedWrite>> units = assembler.finish();
+        assertUnitSizes(units, 4);
+        assertInOrder(units);
+        Assert.assertEquals(2, assembler.getTransactions());
+        Assert.assertEquals(0, assembler.getSplitTransactions());
+    }
+
+    @Test
+    public void testTransactionNotSplitAcrossUnits() {
+        TransactionBulkAssembler assembler = new TransactionBulkAssembler(4, Long.MAX_VALUE);
+        addTransaction(assembler, 3);
+        //放不下时整个事务进入下一个单元，不会一半在前一半在后
+        addTransaction(assembler, 2);
+        addTransaction(assembler, 2);
+
+        List<List<ElasticSearchBulkManager.BufferedWrite>> units = assembler.finish();
+        assertUnitSizes(units, 3, 4);
+        assertInOrder(units);
+        Assert.assertEquals(0, assembler.getSplitTransactions());
+    }
+
+    @Test
+    public void testTransactionSealedByBytes() {
+        TransactionBulkAssembler assembler = new TransactionBulkAssembler(100, DELETE_BYTES * 5);
+        addTransaction(assembler, 3);
+        addTransaction(assembler, 3);
+
+        assertUnitSizes(assembler.finish(), 3, 3);
+    }
+
+    @Test
+    public void testOversizedTransactionSplit() {
+        TransactionBulkAssembler assembler = new TransactionBulkAssembler(4, Long.MAX_VALUE);
+        addTransaction(assembler, 1);
+        addTransaction(assembler, 9);
+        addTransaction(assembler, 1);
+
+        List<List<ElasticSearchBulkManager.BufferedWrite>> units = assembler.finish();
+        //之前的小事务先成单元，超大事务按上限切块，剩余部分与后续事务合并
+        assertUnitSizes(units, 1, 4, 4, 2);
+        assertInOrder(units);
+        Assert.assertEquals(3, assembler.getTransactions());
+        Assert.assertEquals(1, assembler.getSplitTransactions());
+    }
+
+    @Test
+    public void testOversizedTransactionSplitByBytes() {
+        TransactionBulkAssembler assembler = new TransactionBulkAssembler(100, DELETE_BYTES * 3);
+        addTransaction(assembler, 7);
+
+        assertUnitSizes(assembler.finish(), 3, 3, 1);
+        Assert.assertEquals(1, assembler.getSplitTransactions());
+    }
+
+    @Test
+    public void testFinishSealsOpenTransaction() {
+        TransactionBulkAssembler assembler = new TransactionBulkAssembler(4, Long.MAX_VALUE);
+        addTransaction(assembler, 1);
+        //跨批次事务的前半部分，尚未结束
+        add(assembler, 2);
+
+        List<List<ElasticSearchBulkManager.BufferedWrite>> units = assembler.finish();
+        assertUnitSizes(units, 3);
+        assertInOrder(units);
+        Assert.assertEquals(1, assembler.getTransactions());
+        Assert.assertTrue(assembler.finish().isEmpty());
+    }
+
+    private void addTransaction(TransactionBulkAssembler assembler, int rows) {
+        add(assembler, rows);
+        assembler.endTransaction();
+    }
+
+    private void add(TransactionBulkAssembler assembler, int rows) {
+        for (int i = 0; i < rows; i++) {
+            sequence++;
+            assembler.add(new DeleteRequest("db.tb", "_doc", String.valueOf(sequence)), null, String.valueOf(sequence));
+        }
+    }
+
+    private static void assertUnitSizes(List<List<ElasticSearchBulkManager.BufferedWrite>> units, int... sizes) {
+        Assert.assertEquals(sizes.length, units.size());
+        for (int i = 0; i < sizes.length; i++) {
+            Assert.assertEquals(sizes[i], units.get(i).size());
+        }
+    }
+
+    /**
+     * 单元内与单元间均保持binlog顺序
+     */
+    private static void assertInOrder(List<List<ElasticSearchBulkManager.BufferedWrite>> units) {
+        int expected = 0;
+        for (List<ElasticSearchBulkManager.BufferedWrite> unit : units) {
+            for (ElasticSearchBulkManager.BufferedWrite write : unit) {
+                expected++;
+                Assert.assertEquals(String.valueOf(expected), write.getPosition());
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.es.datadump.manager.log;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 行变更延迟告警按destination限频
+ *
+ * @author yiheni
+ */
+public class BinlogEventLogManagerTest {
+
+    private final static long INTERVAL_MS = 10000L;
+
+    @Test
+    public void testLagWarnRateLimited() {
+        BinlogEventLogManager manager = newManager();
+        Assert.assertEquals(0L, manager.tryLagWarn("example", 1000L));
+        //间隔内的告警被抑制，计数随下一条告警输出
+        Assert.assertEquals(-1L, manager.tryLagWarn("example", 2000L));
+        Assert.assertEquals(-1L, manager.tryLagWarn("example", 1000L + INTERVAL_MS - 1));
+        Assert.assertEquals(2L, manager.tryLagWarn("example", 1000L + INTERVAL_MS));
+        Assert.assertEquals(-1L, manager.tryLagWarn("example", 1000L + INTERVAL_MS + 1));
+    }
+
+    @Test
+    public void testLagWarnPerDestination() {
+        BinlogEventLogManager manager = newManager();
+        Assert.assertEquals(0L, manager.tryLagWarn("a", 1000L));
+        Assert.assertEquals(0L, manager.tryLagWarn("b", 1000L));
+        Assert.assertEquals(-1L, manager.tryLagWarn("a", 1000L));
+    }
+
+    private static BinlogEventLogManager newManager() {
+        BinlogEventLogManager manager = new BinlogEventLogManager();
+        ReflectionTestUtils.setField(manager, "lagWarnIntervalMs", INTERVAL_MS);
+        return manager;
+    }
+}
@@ -0,0 +1,295 @@
+package com.es.datadump.manager.spool;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * 本地磁盘spool的追加、排空、恢复与反压
+ * 在临时目录上读写真实的段文件，崩溃场景通过直接改写段文件模拟。
+ *
+ * @author yiheni
+ */
+public class DumpSpoolTest {
+
+    /**
+     * 记录头：长度、CRC32、写入时间
+     */
+    private final static int RECORD_HEADER_BYTES = 16;
+    private final static int SEGMENT_BYTES = 64 * 1024;
+
+    private File dir;
+    private DumpSpool spool;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("dump-spool").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (spool != null) {
+            spool.close();
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testAppendCommitPoll() throws Exception {
+        spool = open(SEGMENT_BYTES, 0L);
+        spool.append(record(1));
+        spool.append(record(2));
+        //提交前排空端不可见
+        Assert.assertTrue(spool.poll(10, 10L).isEmpty());
+        Assert.assertEquals(0L, spool.getPendingBytes());
+
+        spool.commit();
+        Assert.assertEquals(2 * recordBytes(1), spool.getPendingBytes());
+        assertIds(spool.poll(10, 10L), 1, 2);
+        Assert.assertTrue(spool.poll(10, 10L).isEmpty());
+
+        spool.checkpoint();
+        Assert.assertEquals(0L, spool.getPendingBytes());
+    }
+
+    @Test
+    public void testPollHonorsMaxRecords() throws Exception {
+        spool = open(SEGMENT_BYTES, 0L);
+        appendAndCommit(1, 2, 3);
+
+        assertIds(spool.poll(2, 10L), 1, 2);
+        assertIds(spool.poll(2, 10L), 3);
+    }
+
+    @Test
+    public void testRecoverAfterReopen() throws Exception {
+        spool = open(SEGMENT_BYTES, 0L);
+        appendAndCommit(1, 2, 3);
+        spool.close();
+
+        spool = open(SEGMENT_BYTES, 0L);
+        Assert.assertEquals(3 * recordBytes(1), spool.getPendingBytes());
+        assertIds(spool.poll(10, 10L), 1, 2, 3);
+
+        //恢复后的写入位置接在最后一条记录之后
+        appendAndCommit(4);
+        assertIds(spool.poll(10, 10L), 4);
+    }
+
+    @Test
+    public void testRecoverFromCheckpoint() throws Exception {
+        spool = open(SEGMENT_BYTES, 0L);
+        appendAndCommit(1, 2, 3);
+        assertIds(spool.poll(2, 10L), 1, 2);
+        spool.checkpoint();
+        spool.close();
+
+        spool = open(SEGMENT_BYTES, 0L);
+        Assert.assertEquals(recordBytes(3), spool.getPendingBytes());
+        assertIds(spool.poll(10, 10L), 3);
+    }
+
+    @Test
+    public void testRewindToCheckpoint() throws Exception {
+        spool = open(SEGMENT_BYTES, 0L);
+        appendAndCommit(1, 2, 3);
+        assertIds(spool.poll(1, 10L), 1);
+        spool.checkpoint();
+        assertIds(spool.poll(10, 10L), 2, 3);
+
+        //写入ES失败，检查点之后的记录重新读取
+        spool.rewind();
+        assertIds(spool.poll(10, 10L), 2, 3);
+        Assert.assertEquals(2 * recordBytes(1), spool.getPendingBytes());
+        spool.checkpoint();
+        Assert.assertEquals(0L, spool.getPendingBytes());
+    }
+
+    @Test
+    public void testTornLengthDiscarded() throws Exception {
+        spool = open(SEGMENT_BYTES, 0L);
+        appendAndCommit(1, 2, 3);
+        spool.close();
+
+        //长度最后写入，崩溃时未写完的记录长度为0
+        writeInt(segmentFile(0L), 2 * recordBytes(1), 0);
+
+        spool = open(SEGMENT_BYTES, 0L);
+        Assert.assertEquals(2 * recordBytes(1), spool.getPendingBytes());
+        appendAndCommit(4);
+        assertIds(spool.poll(10, 10L), 1, 2, 4);
+    }
+
+    @Test
+    public void testCorruptCrcDiscarded() throws Exception {
+        spool = open(SEGMENT_BYTES, 0L);
+        appendAndCommit(1, 2, 3);
+        spool.close();
+
+        //第二条记录内容损坏，其后的记录一并丢弃，对应批次未ack，由canal重新投递
+        long second = recordBytes(1);
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(0L), "rw")) {
+            long offset = second + RECORD_HEADER_BYTES + 2;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xff);
+        }
+
+        spool = open(SEGMENT_BYTES, 0L);
+        Assert.assertEquals(recordBytes(1), spool.getPendingBytes());
+        appendAndCommit(5);
+        assertIds(spool.poll(10, 10L), 1, 5);
+    }
+
+    @Test
+    public void testRollSegmentsAndDeleteAfterCheckpoint() throws Exception {
+        //每个段放两条记录
+        int segmentBytes = (int) (2 * recordBytes(1) + 8);
+        spool = open(segmentBytes, 0L);
+        appendAndCommit(1, 2, 3, 4, 5);
+        Assert.assertTrue(segmentFile(2L).exists());
+        Assert.assertEquals(3L * segmentBytes, spool.getDiskBytes());
+
+        assertIds(spool.poll(10, 10L), 1, 2, 3, 4, 5);
+        spool.checkpoint();
+        Assert.assertFalse(segmentFile(0L).exists());
+        Assert.assertFalse(segmentFile(1L).exists());
+        Assert.assertEquals((long) segmentBytes, spool.getDiskBytes());
+        spool.close();
+
+        spool = open(segmentBytes, 0L);
+        Assert.assertEquals(0L, spool.getPendingBytes());
+        appendAndCommit(6);
+        assertIds(spool.poll(10, 10L), 6);
+    }
+
+    @Test
+    public void testAppendWaitsForDiskSpace() throws Exception {
+        //每个段放两条记录，磁盘上限取最小值四个段
+        int segmentBytes = (int) (2 * recordBytes(1) + 8);
+        spool = open(segmentBytes, 0L);
+        int total = 12;
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= total; i++) {
+                    spool.append(record(i));
+                }
+                spool.commit();
+            } catch (Throwable e) {
+                failure.set(e);
+            } finally {
+                done.countDown();
+            }
+        }, "spool-writer");
+        writer.start();
+
+        Assert.assertFalse(done.await(500L, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(4L * segmentBytes, spool.getDiskBytes());
+
+        List<SpoolRecord> drained = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (drained.size() < total && System.currentTimeMillis() < deadline) {
+            drained.addAll(spool.poll(100, 100L));
+            spool.checkpoint();
+        }
+        Assert.assertTrue(done.await(5L, TimeUnit.SECONDS));
+        Assert.assertNull(failure.get());
+        int[] expected = new int[total];
+        for (int i = 0; i < total; i++) {
+            expected[i] = i + 1;
+        }
+        assertIds(drained, expected);
+        Assert.assertTrue(spool.getDiskBytes() <= 4L * segmentBytes);
+    }
+
+    @Test
+    public void testCloseReleasesWaitingAppend() throws Exception {
+        int segmentBytes = (int) (2 * recordBytes(1) + 8);
+        spool = open(segmentBytes, 0L);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= 12; i++) {
+                    spool.append(record(i));
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        }, "spool-writer");
+        writer.start();
+        writer.join(500L);
+        Assert.assertTrue(writer.isAlive());
+
+        spool.close();
+        writer.join(5000L);
+        Assert.assertFalse(writer.isAlive());
+        Assert.assertTrue(failure.get() instanceof IOException);
+        spool = null;
+    }
+
+    private DumpSpool open(int segmentBytes, long maxDiskBytes) throws IOException {
+        DumpSpool opened = new DumpSpool(dir, segmentBytes, maxDiskBytes);
+        opened.open();
+        return opened;
+    }
+
+    private void appendAndCommit(int... ids) throws IOException, InterruptedException {
+        for (int id : ids) {
+            spool.append(record(id));
+        }
+        spool.commit();
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%020d.seg", segment));
+    }
+
+    /**
+     * 主键位数相同的记录占用的字节数相同
+     */
+    private static long recordBytes(int id) throws IOException {
+        return RECORD_HEADER_BYTES + record(id).encode().length;
+    }
+
+    private static SpoolRecord record(int id) {
+        String key = String.format("%04d", id);
+        IndexRequest request = new IndexRequest("db.tb", "_doc", key)
+                .source(Collections.singletonMap("name", "row-" + key));
+        return SpoolRecord.of(request, "mysql-bin.000001:" + key);
+    }
+
+    private static void writeInt(File file, long offset, int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.writeInt(value);
+        }
+    }
+
+    private static void assertIds(List<SpoolRecord> records, int... ids) {
+        Assert.assertEquals(ids.length, records.size());
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(String.format("%04d", ids[i]), records.get(i).getId());
+        }
+    }
+}
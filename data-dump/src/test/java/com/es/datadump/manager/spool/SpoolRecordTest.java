@@ -0,0 +1,111 @@
+package com.es.datadump.manager.spool;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.index.VersionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * spool记录序列化后还原出等价的写入请求
+ *
+ * @author yiheni
+ */
+public class SpoolRecordTest {
+
+    private final static String POSITION = "mysql-bin.000003:1024";
+
+    @Test
+    public void testIndexRoundTrip() throws IOException {
+        IndexRequest request = new IndexRequest("db.tb", "_doc", "1").source(row("a", 1, "b", "x"));
+        SpoolRecord record = roundTrip(SpoolRecord.of(request, POSITION));
+
+        IndexRequest restored = (IndexRequest) record.toRequest();
+        assertTarget(request, restored);
+        Assert.assertEquals(request.sourceAsMap(), restored.sourceAsMap());
+        Assert.assertEquals(VersionType.INTERNAL, restored.versionType());
+        Assert.assertNull(record.toFallback());
+        Assert.assertEquals(POSITION, record.getPosition());
+        Assert.assertEquals(123L, record.getTimestamp());
+    }
+
+    @Test
+    public void testExternalVersionRoundTrip() throws IOException {
+        IndexRequest index = new IndexRequest("db.tb", "_doc", "1").source(row("a", 1));
+        index.version(42L);
+        index.versionType(VersionType.EXTERNAL_GTE);
+        DeleteRequest delete = new DeleteRequest("db.tb", "_doc", "2");
+        delete.version(43L);
+        delete.versionType(VersionType.EXTERNAL_GTE);
+
+        DocWriteRequest restoredIndex = roundTrip(SpoolRecord.of(index, POSITION)).toRequest();
+        Assert.assertEquals(42L, restoredIndex.version());
+        Assert.assertEquals(VersionType.EXTERNAL_GTE, restoredIndex.versionType());
+        DocWriteRequest restoredDelete = roundTrip(SpoolRecord.of(delete, POSITION)).toRequest();
+        Assert.assertTrue(restoredDelete instanceof DeleteRequest);
+        assertTarget(delete, restoredDelete);
+        Assert.assertEquals(43L, restoredDelete.version());
+        Assert.assertEquals(VersionType.EXTERNAL_GTE, restoredDelete.versionType());
+    }
+
+    @Test
+    public void testUpdateRoundTrip() throws IOException {
+        UpdateRequest request = new UpdateRequest("db.tb", "_doc", "1").doc(row("b", 2)).upsert(row("a", 1, "b", 2));
+        SpoolRecord record = roundTrip(SpoolRecord.of(request, null));
+
+        UpdateRequest restored = (UpdateRequest) record.toRequest();
+        assertTarget(request, restored);
+        Assert.assertEquals(row("b", 2), restored.doc().sourceAsMap());
+        Assert.assertEquals(row("a", 1, "b", 2), restored.upsertRequest().sourceAsMap());
+        Assert.assertNull(record.toFallback());
+        Assert.assertEquals("", record.getPosition());
+    }
+
+    @Test
+    public void testPartialRoundTrip() throws IOException {
+        UpdateRequest request = new UpdateRequest("db.tb", "_doc", "1").doc(row("b", 2));
+        UpdateRequest fallback = new UpdateRequest("db.tb", "_doc", "1").doc(row("a", 1, "b", 2)).upsert(row("a", 1, "b", 2));
+        SpoolRecord record = roundTrip(SpoolRecord.of(request, fallback, POSITION));
+
+        UpdateRequest restored = (UpdateRequest) record.toRequest();
+        Assert.assertEquals(row("b", 2), restored.doc().sourceAsMap());
+        Assert.assertNull(restored.upsertRequest());
+        UpdateRequest restoredFallback = (UpdateRequest) record.toFallback();
+        assertTarget(request, restoredFallback);
+        Assert.assertEquals(row("a", 1, "b", 2), restoredFallback.doc().sourceAsMap());
+        Assert.assertEquals(row("a", 1, "b", 2), restoredFallback.upsertRequest().sourceAsMap());
+    }
+
+    @Test
+    public void testPartialWithoutUpsertRecordedAsUpdate() throws IOException {
+        UpdateRequest request = new UpdateRequest("db.tb", "_doc", "1").doc(row("b", 2));
+        SpoolRecord record = roundTrip(SpoolRecord.of(request, new UpdateRequest("db.tb", "_doc", "1").doc(row("b", 2)), POSITION));
+
+        Assert.assertNull(record.toFallback());
+        Assert.assertEquals(row("b", 2), ((UpdateRequest) record.toRequest()).doc().sourceAsMap());
+    }
+
+    private static SpoolRecord roundTrip(SpoolRecord record) throws IOException {
+        return SpoolRecord.decode(record.encode(), 123L);
+    }
+
+    private static void assertTarget(DocWriteRequest expected, DocWriteRequest actual) {
+        Assert.assertEquals(expected.index(), actual.index());
+        Assert.assertEquals(expected.type(), actual.type());
+        Assert.assertEquals(expected.id(), actual.id());
+    }
+
+    private static Map<String, Object> row(Object... keyValues) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            row.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return row;
+    }
+}
@@ -4,7 +4,9 @@ import com.es.stone.constant.EsConstant;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
@@ -15,6 +17,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -98,6 +101,77 @@ public class ElasticSearchDumpManager {
         }
     }
 
+    /**
+     * 组装插入或更新ES数据的请求，用于批量提交
+     *
+     * @param colMap
+     * @param index
+     * @return
+     */
+    public UpdateRequest buildUpsertRequest(Map colMap, String index) {
+        String esKey = (String) colMap.get(EsConstant.ES_KEY);
+        UpdateRequest request = new UpdateRequest(index, GENERAL_TYPE, esKey);
+        //移除主键值
+        colMap.remove(EsConstant.ES_KEY);
+        request.doc(colMap);
+        request.upsert(colMap);
+        return request;
+    }
+
+    /**
+     * 组装只更新部分字段的请求，不带upsert，文档不存在时由调用方处理
+     *
+     * @param doc   变更的字段
+     * @param index
+     * @param esKey
+     * @return
+     */
+    public UpdateRequest buildPartialUpdateRequest(Map doc, String index, String esKey) {
+        return new UpdateRequest(index, GENERAL_TYPE, esKey).doc(doc);
+    }
+
+    /**
+     * 组装整体覆盖ES文档的请求，用于批量提交
+     *
+     * @param colMap
+     * @param index
+     * @return
+     */
+    public IndexRequest buildIndexRequest(Map colMap, String index) {
+        String esKey = (String) colMap.get(EsConstant.ES_KEY);
+        //移除主键值
+        colMap.remove(EsConstant.ES_KEY);
+        return new IndexRequest(index, GENERAL_TYPE, esKey).source(colMap);
+    }
+
+    /**
+     * 组装删除ES数据的请求，用于批量提交
+     *
+     * @param colMap
+     * @param index
+     * @return
+     */
+    public DeleteRequest buildDeleteRequest(Map colMap, String index) {
+        String esKey = (String) colMap.get(EsConstant.ES_KEY);
+        return new DeleteRequest(index, GENERAL_TYPE, esKey);
+    }
+
+    /**
+     * 批量提交请求到es，逐条结果由调用方根据响应处理
+     *
+     * @param request
+     * @return
+     * @throws IOException
+     */
+    public BulkResponse bulk(BulkRequest request) throws IOException {
+        RestHighLevelClient client = elasticSearchInitClientManager.getClientFromPool();
+        try {
+            return client.bulk(request);
+        } finally {
+            elasticSearchInitClientManager.disConnect(client);
+        }
+    }
+
     /**
      * 同步插入或更新ES数据方法
      *
@@ -147,6 +221,21 @@ public class ElasticSearchDumpManager {
         return response.isAcknowledged();
     }
 
+    /**
+     * 一次性新增索引字段mapping，通用方法
+     *
+     * @param index
+     * @param properties 字段名与字段mapping
+     * @return
+     * @throws Exception
+     */
+    public boolean putMapping(String index, Map<String, Object> properties) throws Exception {
+        PutMappingRequest request = new PutMappingRequest(index);
+        request.type(GENERAL_TYPE);
+        request.source(Collections.singletonMap("properties", properties));
+        return elasticSearchInitClientManager.getElasticClient().indices().putMapping(request).isAcknowledged();
+    }
+
     /**
      * 判断索引是否存在，通用方法
      *